@@ -0,0 +1,117 @@
+package com.videoservice.video.auth;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.access.AccessDecisionManager;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.expression.OAuth2WebSecurityExpressionHandler;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.expression.ExpressionBasedFilterInvocationSecurityMetadataSource;
+import org.springframework.security.web.access.expression.WebExpressionVoter;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+/**
+ * The cost of the access decision for one request to /video with a
+ * "read" token, as the FilterSecurityInterceptor makes it from the
+ * #oauth2 expressions ("expression") and as ScopeAccessFilter makes it
+ * ("compiled"). GET is allowed and POST is denied.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AccessDecisionBenchmark {
+
+	@Param({ "GET", "POST" })
+	public String method;
+
+	private MockHttpServletRequest request;
+
+	private FilterInvocation invocation;
+
+	private OAuth2Authentication authentication;
+
+	private ScopeAccessRules rules;
+
+	private ExpressionBasedFilterInvocationSecurityMetadataSource metadataSource;
+
+	private AccessDecisionManager decisionManager;
+
+	@Setup
+	public void setup() {
+		request = new MockHttpServletRequest(method, "/video");
+		request.setServletPath("/video");
+		invocation = new FilterInvocation(request, new MockHttpServletResponse(), new MockFilterChain());
+
+		OAuth2Request clientRequest = new OAuth2Request(Collections.<String, String> emptyMap(), "mobileReader",
+				AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true, Collections.singleton("read"),
+				Collections.singleton("video"), null, null, Collections.<String, Serializable> emptyMap());
+		authentication = new OAuth2Authentication(clientRequest, new UsernamePasswordAuthenticationToken("user0",
+				"N/A", AuthorityUtils.createAuthorityList("USER")));
+
+		// The same rules as OAuth2SecurityConfiguration.ResourceServer
+		rules = new ScopeAccessRules()
+				.anonymous("/oauth/token")
+				.requireScope(HttpMethod.GET, "/**", "read")
+				.requireScope(null, "/**", "write");
+
+		OAuth2WebSecurityExpressionHandler handler = new OAuth2WebSecurityExpressionHandler();
+		LinkedHashMap<RequestMatcher, Collection<ConfigAttribute>> map = new LinkedHashMap<RequestMatcher, Collection<ConfigAttribute>>();
+		map.put(new AntPathRequestMatcher("/oauth/token"), SecurityConfig.createList("anonymous"));
+		map.put(new AntPathRequestMatcher("/**", "GET"), SecurityConfig.createList("#oauth2.hasScope('read')"));
+		map.put(new AntPathRequestMatcher("/**"), SecurityConfig.createList("#oauth2.hasScope('write')"));
+		metadataSource = new ExpressionBasedFilterInvocationSecurityMetadataSource(map, handler);
+		WebExpressionVoter voter = new WebExpressionVoter();
+		voter.setExpressionHandler(handler);
+		decisionManager = new AffirmativeBased(Arrays.<AccessDecisionVoter> asList(voter));
+
+		// Fill the per-token memo, as the first request with the token would
+		rules.isAllowed(request, authentication);
+	}
+
+	@Benchmark
+	public boolean expression() {
+		try {
+			decisionManager.decide(authentication, invocation, metadataSource.getAttributes(invocation));
+			return true;
+		} catch (AccessDeniedException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public boolean compiled() {
+		return rules.isAllowed(request, authentication);
+	}
+}
@@ -0,0 +1,184 @@
+package com.videoservice.video.auth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load test for the HTTPS connector. Start the server first, then run
+ * "gradle jmh -Pjmh.include=ConnectionChurn".
+ * 
+ * Every request goes to GET /video without a token, so the server only
+ * does the connection work and a 401.
+ * 
+ * connectPerRequest opens a new connection for each request, the way a
+ * phone that keeps losing its network does. With handshake "full" the
+ * client invalidates each TLS session after its request, so it has none
+ * to offer and every handshake is a full one; with "resumed" it offers
+ * its last session, which the server accepts while it is in its session
+ * cache. keepAlive, which doesn't depend on the handshake, sends all
+ * the requests on one connection, which is the best case, until the
+ * server closes it after maxKeepAliveRequests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(16)
+@Fork(1)
+public class ConnectionChurnBenchmark {
+
+	private static final byte[] CLOSE_REQUEST = request("close");
+
+	private static final byte[] KEEP_ALIVE_REQUEST = request("keep-alive");
+
+	@Param({ "localhost" })
+	public String host;
+
+	@Param({ "8443" })
+	public int port;
+
+	/**
+	 * Only connectPerRequest uses this, so keepAlive isn't run once per
+	 * handshake.
+	 */
+	@State(Scope.Thread)
+	public static class Handshake {
+
+		@Param({ "full", "resumed" })
+		public String handshake;
+	}
+
+	private SSLContext context;
+
+	private SSLSocket keepAliveSocket;
+
+	private final byte[] buffer = new byte[8192];
+
+	@Setup
+	public void setup() throws Exception {
+		context = newContext();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (keepAliveSocket != null) {
+			keepAliveSocket.close();
+			keepAliveSocket = null;
+		}
+	}
+
+	@Benchmark
+	public int connectPerRequest(Handshake mode) throws Exception {
+		try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(host, port)) {
+			socket.getOutputStream().write(CLOSE_REQUEST);
+			int total = drain(socket.getInputStream());
+			if ("full".equals(mode.handshake)) {
+				// Takes the session out of the client's cache
+				socket.getSession().invalidate();
+			}
+			return total;
+		}
+	}
+
+	@Benchmark
+	public int keepAlive() throws Exception {
+		if (keepAliveSocket == null || keepAliveSocket.isClosed()) {
+			keepAliveSocket = (SSLSocket) context.getSocketFactory().createSocket(host, port);
+		}
+		OutputStream out = keepAliveSocket.getOutputStream();
+		out.write(KEEP_ALIVE_REQUEST);
+		out.flush();
+		int status = readResponse(keepAliveSocket.getInputStream());
+		if (status < 0) {
+			keepAliveSocket.close();
+		}
+		return status;
+	}
+
+	// Reads until the server closes the connection
+	private int drain(InputStream in) throws IOException {
+		int total = 0;
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			total += n;
+		}
+		return total;
+	}
+
+	// Reads one response, relying on the 401 having a Content-Length or
+	// no body. Returns -1 when the connection has to be reopened.
+	private int readResponse(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		int c;
+		while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+			if ((c = in.read()) == -1) {
+				return -1;
+			}
+			head.append((char) c);
+		}
+		String headers = head.toString().toLowerCase();
+		int length = 0;
+		int i = headers.indexOf("content-length:");
+		if (i >= 0) {
+			length = Integer.parseInt(headers.substring(i + 15, headers.indexOf('\r', i)).trim());
+		}
+		while (length > 0) {
+			int n = in.read(buffer, 0, Math.min(length, buffer.length));
+			if (n == -1) {
+				return -1;
+			}
+			length -= n;
+		}
+		return headers.contains("connection: close") ? -1 : Integer.parseInt(headers.substring(9, 12));
+	}
+
+	private static byte[] request(String connection) {
+		return ("GET /video HTTP/1.1\r\nHost: localhost\r\nConnection: " + connection + "\r\n\r\n")
+				.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	// Trusts the self-signed test certificate, see UnsafeHttpsClient
+	private static SSLContext newContext() throws Exception {
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, new TrustManager[] { new X509TrustManager() {
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() {
+				return new X509Certificate[0];
+			}
+		} }, new SecureRandom());
+		return context;
+	}
+}
@@ -0,0 +1,66 @@
+package com.videoservice.video.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Measures the decode and encode phases of the pure-Java pipeline on
+ * their own. They do not depend on the effect, so they are kept out of
+ * ImageFilterBenchmark's effect matrix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ImageCodecBenchmark {
+
+	@Param
+	public ImageSize size;
+
+	private final RasterPool pool = new RasterPool(1L << 30);
+
+	private final ImageCodec codec = new ImageCodec(0.92f);
+
+	private PixelBuffer image;
+
+	private byte[] jpeg;
+
+	@Setup
+	public void setup() throws IOException {
+		image = size.sample();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.encode(image, out);
+		jpeg = out.toByteArray();
+	}
+
+	@Benchmark
+	public int decode() throws IOException {
+		PixelBuffer decoded = codec.decode(new ByteArrayInputStream(jpeg), pool);
+		int pixel = decoded.getPixels()[0];
+		decoded.release(pool);
+		return pixel;
+	}
+
+	@Benchmark
+	public void encode() throws IOException {
+		codec.encode(image, ByteStreams.nullOutputStream());
+	}
+}
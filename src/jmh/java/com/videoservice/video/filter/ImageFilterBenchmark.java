@@ -0,0 +1,79 @@
+package com.videoservice.video.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the filter phase of every effect across the ImageSize matrix,
+ * on already decoded pixels, with the filters configured exactly as the
+ * JavaFilterEngine configures them.
+ * 
+ * The "tiled" benchmark runs the same filter through a TiledExecutor
+ * using every available core, to show how single-image latency scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ImageFilterBenchmark {
+
+	@Param
+	public ImageSize size;
+
+	@Param({ "NOISE", "BLUR", "CHARCOAL", "GRAYSCALE", "EDGE", "SOLARIZE" })
+	public ImageEffect effect;
+
+	private final RasterPool pool = new RasterPool(1L << 30);
+
+	private final ImageCodec codec = new ImageCodec(0.92f);
+
+	private TiledExecutor tiles;
+
+	private ImageFilter sequential;
+
+	private ImageFilter tiled;
+
+	private PixelBuffer src;
+
+	private PixelBuffer dst;
+
+	@Setup
+	public void setup() {
+		tiles = new TiledExecutor(Runtime.getRuntime().availableProcessors(), 64);
+		sequential = new JavaFilterEngine(codec, pool).getFilter(effect);
+		tiled = new JavaFilterEngine(codec, pool, tiles).getFilter(effect);
+		src = size.sample();
+		dst = PixelBuffer.allocate(src.getWidth(), src.getHeight(), pool);
+	}
+
+	@TearDown
+	public void tearDown() {
+		tiles.shutdown();
+	}
+
+	@Benchmark
+	public int[] filter() {
+		sequential.apply(src, dst, pool);
+		return dst.getPixels();
+	}
+
+	@Benchmark
+	public int[] tiled() {
+		tiled.apply(src, dst, pool);
+		return dst.getPixels();
+	}
+}
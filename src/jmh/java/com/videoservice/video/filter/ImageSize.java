@@ -0,0 +1,41 @@
+package com.videoservice.video.filter;
+
+import java.util.Random;
+
+/**
+ * The image sizes the benchmarks run at, from a small preview up to a
+ * full-resolution phone camera photo.
+ */
+public enum ImageSize {
+
+	VGA(640, 480),
+	HD1080(1920, 1080),
+	MP12(4000, 3000);
+
+	private final int width;
+	private final int height;
+
+	private ImageSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * A deterministic test image: smooth gradients with some noise on
+	 * top, so JPEG encoding has realistic work to do.
+	 */
+	public PixelBuffer sample() {
+		int[] pixels = new int[width * height];
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = x * 255 / width;
+				int g = y * 255 / height;
+				int b = ((x + y) / 4) & 0xff;
+				int n = random.nextInt(32) - 16;
+				pixels[y * width + x] = Pixels.pack(r + n, g + n, b + n);
+			}
+		}
+		return new PixelBuffer(width, height, pixels);
+	}
+}
@@ -0,0 +1,142 @@
+package com.videoservice.video.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoPage;
+import com.videoservice.video.model.VideoQuery;
+
+/**
+ * Compares the video repositories on a catalog of catalogSize videos:
+ * "memory" is InMemoryVideoRepository, "jpa" is JpaVideoRepository on an
+ * in-memory HSQLDB database, and "jpa-nocache" is the same without its
+ * read cache, so every page is read from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VideoRepositoryBenchmark {
+
+	private static final String[] OWNERS = { "admin", "user0", "user1", "user2", "user3" };
+
+	private static final String[] SUBJECTS = { "cats", "dogs", "cars", "food", "travel", "music" };
+
+	private static final int PAGE_SIZE = 100;
+
+	private static final int BATCH_SIZE = 50;
+
+	@Param({ "memory", "jpa", "jpa-nocache" })
+	public String backend;
+
+	@Param({ "10000" })
+	public int catalogSize;
+
+	private final Random random = new Random(42);
+
+	private LocalContainerEntityManagerFactoryBean factory;
+
+	private VideoRepository repository;
+
+	private long lastId;
+
+	@Setup
+	public void setup() {
+		if ("memory".equals(backend)) {
+			repository = new InMemoryVideoRepository();
+		} else {
+			factory = new LocalContainerEntityManagerFactoryBean();
+			factory.setDataSource(new DriverManagerDataSource("jdbc:hsqldb:mem:" + backend, "sa", ""));
+			factory.setPackagesToScan(Video.class.getPackage().getName());
+			factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+			Properties properties = new Properties();
+			properties.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+			properties.setProperty("hibernate.jdbc.batch_size", Integer.toString(BATCH_SIZE));
+			properties.setProperty("hibernate.order_inserts", "true");
+			factory.setJpaProperties(properties);
+			factory.afterPropertiesSet();
+			EntityManagerFactory entityManagerFactory = factory.getObject();
+			repository = new JpaVideoRepository(entityManagerFactory,
+					new JpaTransactionManager(entityManagerFactory), "jpa".equals(backend) ? catalogSize : 0,
+					BATCH_SIZE);
+		}
+		for (Video video : repository.saveAll(videos(catalogSize))) {
+			lastId = Math.max(lastId, video.getId());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (factory != null) {
+			factory.destroy();
+		}
+	}
+
+	@Benchmark
+	public VideoPage page() {
+		return repository.find(new VideoQuery(cursor(), PAGE_SIZE));
+	}
+
+	@Benchmark
+	public VideoPage pageByOwner() {
+		return repository.find(new VideoQuery(cursor(), PAGE_SIZE).setOwner(OWNERS[random.nextInt(OWNERS.length)]));
+	}
+
+	@Benchmark
+	public VideoPage pageByRating() {
+		return repository.find(new VideoQuery(cursor(), PAGE_SIZE).setMinRating(4));
+	}
+
+	@Benchmark
+	public Video findOne() {
+		return repository.findOne(1 + random.nextInt((int) lastId));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object saveBatch() {
+		return repository.saveAll(videos(BATCH_SIZE));
+	}
+
+	private long cursor() {
+		return random.nextInt((int) lastId);
+	}
+
+	private List<Video> videos(int count) {
+		List<Video> videos = new ArrayList<Video>(count);
+		for (int i = 0; i < count; i++) {
+			Video video = new Video(OWNERS[random.nextInt(OWNERS.length)], "video" + i,
+					"http://localhost/video" + i, random.nextInt(600));
+			video.setSubject(SUBJECTS[random.nextInt(SUBJECTS.length)]);
+			video.setLocation("location" + random.nextInt(100));
+			video.setRating(random.nextInt(6));
+			videos.add(video);
+		}
+		return videos;
+	}
+}
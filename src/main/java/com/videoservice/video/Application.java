@@ -1,10 +1,17 @@
 package com.videoservice.video;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
+import javax.persistence.EntityManagerFactory;
 import javax.servlet.MultipartConfigElement;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.context.embedded.MultiPartConfigFactory;
 import org.springframework.context.annotation.Bean;
@@ -12,10 +19,26 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.rest.webmvc.config.RepositoryRestMvcConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
 import com.videoservice.video.auth.OAuth2SecurityConfiguration;
 import com.videoservice.video.controller.VideoFileManager;
+import com.videoservice.video.filter.FilterResultCache;
+import com.videoservice.video.filter.FilterResultCacheEndpoint;
+import com.videoservice.video.filter.FilterWorkerPool;
+import com.videoservice.video.filter.ImageCodec;
+import com.videoservice.video.filter.ImageFilterEngine;
+import com.videoservice.video.filter.JMagickFilterEngine;
+import com.videoservice.video.filter.JavaFilterEngine;
+import com.videoservice.video.filter.RasterPool;
+import com.videoservice.video.filter.TiledExecutor;
+import com.videoservice.video.metrics.ApplicationPublicMetrics;
+import com.videoservice.video.metrics.ImageMetrics;
+import com.videoservice.video.repository.EncodedCatalog;
+import com.videoservice.video.repository.InMemoryVideoRepository;
+import com.videoservice.video.repository.JpaVideoRepository;
+import com.videoservice.video.repository.VideoRepository;
 
 //Tell Spring to automatically inject any dependencies that are marked in
 //our classes with @Autowired
@@ -60,9 +83,135 @@ public class Application extends RepositoryRestMvcConfiguration {
 		SpringApplication.run(Application.class, args);
 	}
 	
+	// Video files are kept in hashed subfolders of "videos". Files left
+	// in the flat layout of older versions are moved there on startup
+	// unless -Dvideo.store.migrateOnStart=false is given. Chunked uploads
+	// are limited in total size, chunk size and number open per user, and
+	// are dropped after idleMinutes without a chunk. Uploads don't survive
+	// a restart, so the part files left by the last run are deleted.
 	@Bean
-	public VideoFileManager videoFileManager() throws IOException {
-		return new VideoFileManager();
+	public VideoFileManager videoFileManager(
+			@Value("${video.store.migrateOnStart:true}") boolean migrateOnStart,
+			@Value("${video.upload.maxSize:4294967296}") long maxUploadSize,
+			@Value("${video.upload.maxChunkSize:8388608}") int maxChunkSize,
+			@Value("${video.upload.maxPerUser:4}") int maxUploadsPerUser,
+			@Value("${video.upload.idleMinutes:60}") long idleMinutes) throws IOException {
+		VideoFileManager manager = new VideoFileManager(maxUploadSize, maxChunkSize, maxUploadsPerUser,
+				TimeUnit.MINUTES.toMillis(idleMinutes));
+		if (migrateOnStart) {
+			manager.migrateFlatLayout();
+		}
+		manager.deleteOrphanedParts();
+		return manager;
+	}
+
+	// Where the video metadata lives. By default it is kept in memory
+	// only, as it always was, and lost on restart. Start the app with
+	// -Dvideo.repository=jpa to store it in the database configured in
+	// application.properties, with the last cacheSize videos read kept
+	// in memory.
+	@Bean
+	public VideoRepository videoRepository(
+			@Value("${video.repository:memory}") String repository,
+			@Value("${video.repository.cacheSize:10000}") int cacheSize,
+			@Value("${video.repository.batchSize:50}") int batchSize,
+			EntityManagerFactory entityManagerFactory,
+			PlatformTransactionManager transactionManager) {
+		if ("jpa".equalsIgnoreCase(repository)) {
+			return new JpaVideoRepository(entityManagerFactory, transactionManager, cacheSize, batchSize);
+		}
+		return new InMemoryVideoRepository();
+	}
+
+	// Serialized GET /video pages, kept for the current repository version.
+	// objectMapper() is the mapper of the JSON message converter.
+	@Bean
+	public EncodedCatalog encodedCatalog(VideoRepository videoRepository,
+			@Value("${video.snapshot.maxPages:256}") int maxPages) {
+		return new EncodedCatalog(videoRepository, objectMapper(), maxPages);
+	}
+
+	// Shared fork/join pool that the pure-Java convolution filters use to
+	// process an image in stripes of tileRows rows. A parallelism of 1
+	// keeps every filter on the request thread.
+	@Bean(destroyMethod = "shutdown")
+	public TiledExecutor tiledExecutor(
+			@Value("${image.filter.parallelism:0}") int parallelism,
+			@Value("${image.filter.tileRows:64}") int tileRows) {
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		return new TiledExecutor(parallelism, tileRows);
+	}
+
+	// Selects the implementation used to apply image effects. Start the
+	// app with -Dimage.filter.engine=java to use the pure-Java filters
+	// instead of JMagick. Those refuse uploads of more than maxPixels
+	// pixels with a 413, as JMagick's own resource limits would.
+	@Bean
+	public ImageFilterEngine imageFilterEngine(
+			@Value("${image.filter.engine:jmagick}") String engine,
+			@Value("${image.filter.jpegQuality:0.92}") float jpegQuality,
+			@Value("${image.filter.poolBytes:268435456}") long poolBytes,
+			@Value("${image.filter.boxBlurSigma:4.0}") double boxBlurSigma,
+			@Value("${image.filter.maxPixels:40000000}") long maxPixels,
+			TiledExecutor tiledExecutor, ImageMetrics imageMetrics) {
+		if ("java".equalsIgnoreCase(engine)) {
+			return new JavaFilterEngine(new ImageCodec(jpegQuality, maxPixels), new RasterPool(poolBytes), tiledExecutor,
+					boxBlurSigma, imageMetrics);
+		}
+		return new JMagickFilterEngine(imageMetrics);
+	}
+
+	// Read, decode, filter, encode and write timings for every effect
+	@Bean
+	public ImageMetrics imageMetrics() {
+		return new ImageMetrics();
+	}
+
+	// Replaces the actuator's default /metrics content with the same
+	// system and counter metrics plus the image pipeline's own
+	@Bean
+	public PublicMetrics publicMetrics(MetricReader metricReader, ImageMetrics imageMetrics,
+			FilterResultCache filterResultCache, FilterWorkerPool filterWorkerPool) {
+		return new ApplicationPublicMetrics(metricReader, imageMetrics, filterResultCache, filterWorkerPool);
+	}
+
+	// Dedicated threads for applying image effects. Each effect may have
+	// at most maxPerEffect uploads waiting or running; further uploads get
+	// a 503 so connector threads stay free for the other endpoints.
+	@Bean(destroyMethod = "shutdown")
+	public FilterWorkerPool filterWorkerPool(
+			@Value("${image.workers.threads:0}") int threads,
+			@Value("${image.workers.maxPerEffect:8}") int maxPerEffect,
+			@Value("${image.workers.retryAfterSeconds:2}") int retryAfterSeconds) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return new FilterWorkerPool(threads, maxPerEffect, retryAfterSeconds);
+	}
+
+	// Keeps filtered images keyed by effect and a hash of the upload so
+	// that repeated uploads of the same picture skip the filter. Setting
+	// image.cache.spillDir (e.g. to "image-cache", next to "videos")
+	// keeps entries evicted from memory on disk.
+	@Bean(destroyMethod = "shutdown")
+	public FilterResultCache filterResultCache(
+			@Value("${image.cache.maxBytes:67108864}") long maxBytes,
+			@Value("${image.cache.maxEntryBytes:8388608}") int maxEntryBytes,
+			@Value("${image.cache.spillDir:}") String spillDir,
+			@Value("${image.cache.maxSpillBytes:1073741824}") long maxSpillBytes,
+			ImageFilterEngine imageFilterEngine) throws IOException {
+		Path spillPath = spillDir.isEmpty() ? null : Paths.get(spillDir);
+		// Results of another engine or engine settings, e.g. in the spill
+		// directory after a restart, must not be served for this one
+		return new FilterResultCache(maxBytes, maxEntryBytes, spillPath, maxSpillBytes,
+				imageFilterEngine.getVariant());
+	}
+
+	@Bean
+	public FilterResultCacheEndpoint filterResultCacheEndpoint(FilterResultCache filterResultCache) {
+		return new FilterResultCacheEndpoint(filterResultCache);
 	}
 
 	// This configuration element adds the ability to accept multipart
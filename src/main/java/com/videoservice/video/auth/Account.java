@@ -0,0 +1,128 @@
+package com.videoservice.video.auth;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.util.StringUtils;
+
+/**
+ * A user or an OAuth client. Both kinds share one table keyed by name,
+ * so a single primary key lookup finds either, and user names and client
+ * ids can't collide.
+ * 
+ * Lists (authorities, scopes, ...) are stored comma separated, which
+ * keeps an account in one row.
+ */
+@Entity
+public class Account {
+
+	public enum Kind {
+		USER, CLIENT
+	}
+
+	@Id
+	private String name;
+
+	@Enumerated(EnumType.STRING)
+	private Kind kind;
+
+	// The user's password or the client's secret
+	private String secret;
+
+	private String authorities;
+
+	// Clients only
+	private String scopes;
+	private String resourceIds;
+	private String grantTypes;
+	private Integer accessTokenValiditySeconds;
+
+	public Account() {
+	}
+
+	public static Account user(String name, String password, String... authorities) {
+		Account account = new Account();
+		account.name = name;
+		account.kind = Kind.USER;
+		account.secret = password;
+		account.authorities = join(authorities);
+		return account;
+	}
+
+	/**
+	 * A client with the given comma separated grant types, scopes,
+	 * resource ids and authorities.
+	 */
+	public static Account client(String clientId, String secret, String grantTypes, String scopes,
+			String resourceIds, String authorities, Integer accessTokenValiditySeconds) {
+		Account account = new Account();
+		account.name = clientId;
+		account.kind = Kind.CLIENT;
+		account.secret = secret;
+		account.grantTypes = grantTypes;
+		account.scopes = scopes;
+		account.resourceIds = resourceIds;
+		account.authorities = authorities;
+		account.accessTokenValiditySeconds = accessTokenValiditySeconds;
+		return account;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getSecret() {
+		return secret;
+	}
+
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	public String getAuthorities() {
+		return authorities;
+	}
+
+	public boolean isClient() {
+		return kind == Kind.CLIENT;
+	}
+
+	/**
+	 * Clients log in to /oauth/token with HTTP Basic, so they are users
+	 * too, with their secret as the password. A client without a secret
+	 * logs in with an empty one.
+	 */
+	public UserDetails toUserDetails() {
+		return User.create(name, secret == null ? "" : secret, split(authorities));
+	}
+
+	/**
+	 * Null for users.
+	 */
+	public ClientDetails toClientDetails() {
+		if (!isClient()) {
+			return null;
+		}
+		BaseClientDetails client = new BaseClientDetails(name, resourceIds, scopes, grantTypes, authorities);
+		client.setClientSecret(secret);
+		client.setAccessTokenValiditySeconds(accessTokenValiditySeconds);
+		return client;
+	}
+
+	private static String join(String... values) {
+		return StringUtils.arrayToCommaDelimitedString(values);
+	}
+
+	private static String[] split(String values) {
+		return StringUtils.commaDelimitedListToStringArray(values);
+	}
+}
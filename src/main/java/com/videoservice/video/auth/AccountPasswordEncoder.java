@@ -0,0 +1,70 @@
+package com.videoservice.video.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.regex.Pattern;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Hashes account secrets with BCrypt. Each step of cost doubles the time
+ * a hash, and so every login that isn't cached, takes; 10 is about 0.1s.
+ * 
+ * Hashes made elsewhere may carry the $2b$ or $2y$ revision instead of
+ * $2a$. For secrets shorter than 256 bytes these are the same algorithm,
+ * so they are checked as $2a$. Any other "$2?$" value is a hash this
+ * class can't check, and never matches.
+ * 
+ * Secrets stored before hashing was introduced, and the empty secrets of
+ * the clients, aren't BCrypt hashes. Those are compared as they are, and
+ * ThrottledAuthenticationProvider replaces a plaintext secret with its
+ * hash on the next successful login.
+ */
+public class AccountPasswordEncoder implements PasswordEncoder {
+
+	// Anything in the modular crypt format of BCrypt, known revision or not
+	private static final Pattern BCRYPT_PREFIX = Pattern.compile("\\$2[a-z]?\\$.*", Pattern.DOTALL);
+
+	private static final Pattern CHECKABLE = Pattern.compile("\\$2[aby]\\$\\d\\d\\$[./0-9A-Za-z]{53}");
+
+	private final BCryptPasswordEncoder bcrypt;
+
+	public AccountPasswordEncoder(int cost) {
+		bcrypt = new BCryptPasswordEncoder(cost);
+	}
+
+	/**
+	 * Whether the stored secret is a BCrypt hash rather than plaintext.
+	 */
+	public static boolean isHashed(String encodedPassword) {
+		return encodedPassword != null && BCRYPT_PREFIX.matcher(encodedPassword).matches();
+	}
+
+	/**
+	 * Whether the stored secret is plaintext that should be hashed. Empty
+	 * secrets are left alone, they mean "no secret".
+	 */
+	public static boolean needsHashing(String encodedPassword) {
+		return encodedPassword != null && !encodedPassword.isEmpty() && !isHashed(encodedPassword);
+	}
+
+	@Override
+	public String encode(CharSequence rawPassword) {
+		return bcrypt.encode(rawPassword);
+	}
+
+	@Override
+	public boolean matches(CharSequence rawPassword, String encodedPassword) {
+		if (isHashed(encodedPassword)) {
+			if (!CHECKABLE.matcher(encodedPassword).matches()) {
+				return false;
+			}
+			// The BCrypt of Spring Security 3.2 only knows the $2a$ revision
+			return bcrypt.matches(rawPassword, "$2a$" + encodedPassword.substring(4));
+		}
+		return encodedPassword != null && MessageDigest.isEqual(
+				encodedPassword.getBytes(StandardCharsets.UTF_8),
+				rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,22 @@
+package com.videoservice.video.auth;
+
+import java.util.Collection;
+
+/**
+ * Where users and clients are kept. Implementations must be thread-safe.
+ */
+public interface AccountStore {
+
+	/**
+	 * The user or client with the name, or null if there is none.
+	 */
+	public Account find(String name);
+
+	public void save(Account account);
+
+	public void saveAll(Collection<Account> accounts);
+
+	public void delete(String name);
+
+	public long count();
+}
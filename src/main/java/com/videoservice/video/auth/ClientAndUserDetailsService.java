@@ -6,54 +6,143 @@
  */
 package com.videoservice.video.auth;
 
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.ClientRegistrationException;
-import org.springframework.security.oauth2.provider.client.ClientDetailsUserDetailsService;
+import org.springframework.security.oauth2.provider.NoSuchClientException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * A class that combines a UserDetailsService and ClientDetailsService
  * into a single object.
  * 
+ * Users and clients come from one AccountStore, so either is found with
+ * a single lookup. The details built from recently used accounts are
+ * kept in a bounded cache for cacheSeconds, which is how long a change
+ * made directly in the store may take to be seen. Names that turned out
+ * not to exist are remembered for only missingCacheSeconds, so that an
+ * account added directly in the store can log in soon after.
+ * 
+ * A store that fails is reported as an AuthenticationServiceException,
+ * which the login answers as a server error rather than bad credentials.
+ * 
  * @author jules
  *
  */
 public class ClientAndUserDetailsService implements UserDetailsService,
 		ClientDetailsService {
 
-	private final ClientDetailsService clients_;
+	private static final class Loaded {
 
-	private final UserDetailsService users_;
-	
-	private final ClientDetailsUserDetailsService clientDetailsWrapper_;
+		final UserDetails user;
+		// null for users
+		final ClientDetails client;
 
-	public ClientAndUserDetailsService(ClientDetailsService clients,
-			UserDetailsService users) {
+		Loaded(Account account) {
+			user = account.toUserDetails();
+			client = account.toClientDetails();
+		}
+	}
+
+	private final AccountStore accounts_;
+
+	private final Cache<String, Loaded> loaded_;
+
+	private final Cache<String, Boolean> missing_;
+
+	public ClientAndUserDetailsService(AccountStore accounts, int cacheSize, int cacheSeconds,
+			int missingCacheSeconds) {
 		super();
-		clients_ = clients;
-		users_ = users;
-		clientDetailsWrapper_ = new ClientDetailsUserDetailsService(clients_);
+		accounts_ = accounts;
+		loaded_ = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheSeconds, TimeUnit.SECONDS)
+				.build();
+		missing_ = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(missingCacheSeconds, TimeUnit.SECONDS)
+				.build();
 	}
 
 	@Override
 	public ClientDetails loadClientByClientId(String clientId)
 			throws ClientRegistrationException {
-		return clients_.loadClientByClientId(clientId);
+		Loaded account = load(clientId);
+		if (account == null || account.client == null) {
+			throw new NoSuchClientException("No client with requested id: " + clientId);
+		}
+		return account.client;
 	}
 	
 	@Override
 	public UserDetails loadUserByUsername(String username)
 			throws UsernameNotFoundException {
-		UserDetails user = null;
-		try{
-			user = users_.loadUserByUsername(username);
-		}catch(UsernameNotFoundException e){
-			user = clientDetailsWrapper_.loadUserByUsername(username);
+		Loaded account = load(username);
+		if (account == null) {
+			throw new UsernameNotFoundException(username);
+		}
+		return account.user;
+	}
+
+	/**
+	 * Store the account, and forget what was cached for its name. The
+	 * secret must already be hashed with AccountPasswordEncoder.
+	 */
+	public void save(Account account) {
+		accounts_.save(account);
+		loaded_.invalidate(account.getName());
+		missing_.invalidate(account.getName());
+	}
+
+	/**
+	 * Replace the secret of the account, if it still exists, with one
+	 * already hashed with AccountPasswordEncoder.
+	 */
+	public void updateSecret(String name, String encodedSecret) {
+		Account account = accounts_.find(name);
+		if (account != null) {
+			account.setSecret(encodedSecret);
+			save(account);
+		}
+	}
+
+	public void delete(String name) {
+		accounts_.delete(name);
+		loaded_.invalidate(name);
+		missing_.invalidate(name);
+	}
+
+	private Loaded load(String name) {
+		if (name == null) {
+			return null;
+		}
+		Loaded loaded = loaded_.getIfPresent(name);
+		if (loaded != null || missing_.getIfPresent(name) != null) {
+			return loaded;
+		}
+		// Two threads missing the same name both look it up; the cache
+		// keeps whichever result comes last
+		Account account;
+		try {
+			account = accounts_.find(name);
+		} catch (RuntimeException e) {
+			throw new AuthenticationServiceException("Could not load account " + name, e);
+		}
+		if (account == null) {
+			missing_.put(name, Boolean.TRUE);
+			return null;
 		}
-		return user;
+		loaded = new Loaded(account);
+		loaded_.put(name, loaded);
+		return loaded;
 	}
 
 }
@@ -0,0 +1,165 @@
+package com.videoservice.video.auth;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Tuning for the HTTPS connector set up in
+ * OAuth2SecurityConfiguration.containerCustomizer(). Every field can be
+ * set with -Dhttp.connector.<name>=..., e.g. -Dhttp.connector.maxThreads=400.
+ * 
+ * The defaults suit a production server that mostly talks to mobile
+ * clients: they reconnect often, so TLS sessions are kept for an hour and
+ * idle keep-alive connections are dropped after 30 seconds. Sizes of 0
+ * leave the operating system or JVM default in place.
+ */
+@ConfigurationProperties(prefix = "http.connector")
+public class HttpsConnectorProperties {
+
+	private int port = 8443;
+
+	// Request processing threads, and how many are kept when idle
+	private int maxThreads = 200;
+	private int minSpareThreads = 25;
+
+	// Connections the OS queues while all maxConnections are taken
+	private int acceptCount = 200;
+
+	// Connections the NIO poller keeps open, busy or idle
+	private int maxConnections = 10000;
+
+	private int connectionTimeoutMillis = 20000;
+
+	private int keepAliveTimeoutMillis = 30000;
+
+	// Requests on one connection before it is closed, -1 for no limit
+	private int maxKeepAliveRequests = 1000;
+
+	private int socketReceiveBufferBytes = 0;
+	private int socketSendBufferBytes = 0;
+
+	// Cached TLS sessions and how long they can be resumed; JSSE takes 0
+	// as no limit for either, so neither turns resumption off. A resumed
+	// session skips the key exchange and the certificate, which is most
+	// of the handshake.
+	private int sslSessionCacheSize = 20480;
+	private int sslSessionTimeoutSeconds = 3600;
+
+	// Comma separated, null for the JVM defaults. The client's order of
+	// preference decides among the ciphers; the Tomcat 7.0.52 used here
+	// cannot enforce the server's order (useServerCipherSuitesOrder came
+	// with 7.0.58).
+	private String sslProtocols;
+	private String ciphers;
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	public int getMinSpareThreads() {
+		return minSpareThreads;
+	}
+
+	public void setMinSpareThreads(int minSpareThreads) {
+		this.minSpareThreads = minSpareThreads;
+	}
+
+	public int getAcceptCount() {
+		return acceptCount;
+	}
+
+	public void setAcceptCount(int acceptCount) {
+		this.acceptCount = acceptCount;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public int getConnectionTimeoutMillis() {
+		return connectionTimeoutMillis;
+	}
+
+	public void setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+		this.connectionTimeoutMillis = connectionTimeoutMillis;
+	}
+
+	public int getKeepAliveTimeoutMillis() {
+		return keepAliveTimeoutMillis;
+	}
+
+	public void setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+		this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+	}
+
+	public int getMaxKeepAliveRequests() {
+		return maxKeepAliveRequests;
+	}
+
+	public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+		this.maxKeepAliveRequests = maxKeepAliveRequests;
+	}
+
+	public int getSocketReceiveBufferBytes() {
+		return socketReceiveBufferBytes;
+	}
+
+	public void setSocketReceiveBufferBytes(int socketReceiveBufferBytes) {
+		this.socketReceiveBufferBytes = socketReceiveBufferBytes;
+	}
+
+	public int getSocketSendBufferBytes() {
+		return socketSendBufferBytes;
+	}
+
+	public void setSocketSendBufferBytes(int socketSendBufferBytes) {
+		this.socketSendBufferBytes = socketSendBufferBytes;
+	}
+
+	public int getSslSessionCacheSize() {
+		return sslSessionCacheSize;
+	}
+
+	public void setSslSessionCacheSize(int sslSessionCacheSize) {
+		this.sslSessionCacheSize = sslSessionCacheSize;
+	}
+
+	public int getSslSessionTimeoutSeconds() {
+		return sslSessionTimeoutSeconds;
+	}
+
+	public void setSslSessionTimeoutSeconds(int sslSessionTimeoutSeconds) {
+		this.sslSessionTimeoutSeconds = sslSessionTimeoutSeconds;
+	}
+
+	public String getSslProtocols() {
+		return sslProtocols;
+	}
+
+	public void setSslProtocols(String sslProtocols) {
+		this.sslProtocols = sslProtocols;
+	}
+
+	public String getCiphers() {
+		return ciphers;
+	}
+
+	public void setCiphers(String ciphers) {
+		this.ciphers = ciphers;
+	}
+}
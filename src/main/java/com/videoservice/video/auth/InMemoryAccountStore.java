@@ -0,0 +1,40 @@
+package com.videoservice.video.auth;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the accounts in a hash map, for tests and single-node setups.
+ */
+public class InMemoryAccountStore implements AccountStore {
+
+	private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<String, Account>();
+
+	@Override
+	public Account find(String name) {
+		return accounts.get(name);
+	}
+
+	@Override
+	public void save(Account account) {
+		accounts.put(account.getName(), account);
+	}
+
+	@Override
+	public void saveAll(Collection<Account> accounts) {
+		for (Account account : accounts) {
+			save(account);
+		}
+	}
+
+	@Override
+	public void delete(String name) {
+		accounts.remove(name);
+	}
+
+	@Override
+	public long count() {
+		return accounts.size();
+	}
+}
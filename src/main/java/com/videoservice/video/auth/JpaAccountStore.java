@@ -0,0 +1,85 @@
+package com.videoservice.video.auth;
+
+import java.util.Collection;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Keeps the accounts in the database. Lookups are by primary key, so
+ * they stay one index probe however many accounts there are.
+ */
+public class JpaAccountStore implements AccountStore {
+
+	private final EntityManager entityManager;
+
+	private final TransactionTemplate transactions;
+
+	private final int batchSize;
+
+	public JpaAccountStore(EntityManagerFactory entityManagerFactory,
+			PlatformTransactionManager transactionManager, int batchSize) {
+		this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+		this.transactions = new TransactionTemplate(transactionManager);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Override
+	public Account find(String name) {
+		return entityManager.find(Account.class, name);
+	}
+
+	@Override
+	public void save(final Account account) {
+		transactions.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				entityManager.merge(account);
+			}
+		});
+	}
+
+	/**
+	 * Writes in JDBC batches of batchSize rows, for bulk imports.
+	 */
+	@Override
+	public void saveAll(final Collection<Account> accounts) {
+		transactions.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				int count = 0;
+				for (Account account : accounts) {
+					entityManager.merge(account);
+					if (++count % batchSize == 0) {
+						entityManager.flush();
+						entityManager.clear();
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public void delete(final String name) {
+		transactions.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				Account account = entityManager.find(Account.class, name);
+				if (account != null) {
+					entityManager.remove(account);
+				}
+			}
+		});
+	}
+
+	@Override
+	public long count() {
+		return entityManager.createQuery("select count(a) from Account a", Long.class).getSingleResult();
+	}
+}
@@ -0,0 +1,127 @@
+package com.videoservice.video.auth;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Map;
+
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Signs and verifies JSON Web Tokens with RS256, using the key pair that
+ * the HTTPS connector serves its certificate from. Any node started with
+ * the same keystore can verify the tokens of any other.
+ * 
+ * Signature objects are not thread-safe, so each thread keeps its own,
+ * initialized once with the key.
+ */
+public class JwtTokenCodec {
+
+	private static final String ALGORITHM = "SHA256withRSA";
+
+	// {"alg":"RS256","typ":"JWT"}, which is the same for every token
+	private static final String HEADER = encode("{\"alg\":\"RS256\",\"typ\":\"JWT\"}"
+			.getBytes(StandardCharsets.UTF_8));
+
+	private static final TypeReference<Map<String, Object>> CLAIMS_TYPE = new TypeReference<Map<String, Object>>() {
+	};
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final ThreadLocal<Signature> signer;
+
+	private final ThreadLocal<Signature> verifier;
+
+	/**
+	 * Use the key stored under alias in a JKS keystore, protected by the
+	 * keystore password like Tomcat expects.
+	 */
+	public static JwtTokenCodec fromKeyStore(String file, String password, String alias)
+			throws IOException, GeneralSecurityException {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		try (InputStream in = new FileInputStream(file)) {
+			keyStore.load(in, password.toCharArray());
+		}
+		PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, password.toCharArray());
+		if (privateKey == null) {
+			throw new GeneralSecurityException("No key named " + alias + " in " + file);
+		}
+		return new JwtTokenCodec(privateKey, keyStore.getCertificate(alias).getPublicKey());
+	}
+
+	public JwtTokenCodec(final PrivateKey privateKey, final PublicKey publicKey) {
+		signer = new ThreadLocal<Signature>() {
+			@Override
+			protected Signature initialValue() {
+				try {
+					Signature signature = Signature.getInstance(ALGORITHM);
+					signature.initSign(privateKey);
+					return signature;
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		verifier = new ThreadLocal<Signature>() {
+			@Override
+			protected Signature initialValue() {
+				try {
+					Signature signature = Signature.getInstance(ALGORITHM);
+					signature.initVerify(publicKey);
+					return signature;
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+
+	public String encode(Map<String, Object> claims) {
+		try {
+			String content = HEADER + "." + encode(mapper.writeValueAsBytes(claims));
+			Signature signature = signer.get();
+			signature.update(content.getBytes(StandardCharsets.US_ASCII));
+			return content + "." + encode(signature.sign());
+		} catch (IOException | GeneralSecurityException e) {
+			throw new IllegalStateException("Could not sign token", e);
+		}
+	}
+
+	/**
+	 * The claims of a token whose signature checks out. Expiry is left to
+	 * the caller.
+	 */
+	public Map<String, Object> decode(String token) {
+		int first = token.indexOf('.');
+		int last = token.lastIndexOf('.');
+		if (first <= 0 || last == first || !token.startsWith(HEADER + ".")) {
+			throw new InvalidTokenException("Not a token issued by this service");
+		}
+		try {
+			// Decode first so that a bad token never leaves data in the verifier
+			byte[] expected = Base64.getUrlDecoder().decode(token.substring(last + 1));
+			Signature signature = verifier.get();
+			signature.update(token.substring(0, last).getBytes(StandardCharsets.US_ASCII));
+			if (!signature.verify(expected)) {
+				throw new InvalidTokenException("Bad token signature");
+			}
+			return mapper.readValue(Base64.getUrlDecoder().decode(token.substring(first + 1, last)), CLAIMS_TYPE);
+		} catch (IllegalArgumentException | IOException | GeneralSecurityException e) {
+			throw new InvalidTokenException("Malformed token");
+		}
+	}
+
+	private static String encode(byte[] bytes) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+}
@@ -0,0 +1,69 @@
+package com.videoservice.video.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+
+/**
+ * Replaces the random value of each issued access token with a signed
+ * JWT that carries everything JwtTokenServices needs to rebuild the
+ * authentication, so resource requests never go to the token store.
+ * 
+ * The random value is kept as the token's id (the "jti" claim).
+ */
+public class JwtTokenEnhancer implements TokenEnhancer {
+
+	static final String SUBJECT = "sub";
+	static final String CLIENT_ID = "client_id";
+	static final String SCOPE = "scope";
+	static final String AUDIENCE = "aud";
+	static final String AUTHORITIES = "authorities";
+	static final String CLIENT_AUTHORITIES = "client_authorities";
+	static final String EXPIRES = "exp";
+	static final String TOKEN_ID = "jti";
+
+	private final JwtTokenCodec codec;
+
+	public JwtTokenEnhancer(JwtTokenCodec codec) {
+		this.codec = codec;
+	}
+
+	@Override
+	public OAuth2AccessToken enhance(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+		OAuth2Request request = authentication.getOAuth2Request();
+		Map<String, Object> claims = new LinkedHashMap<String, Object>();
+		if (!authentication.isClientOnly()) {
+			claims.put(SUBJECT, authentication.getName());
+		}
+		claims.put(CLIENT_ID, request.getClientId());
+		claims.put(SCOPE, accessToken.getScope());
+		claims.put(AUDIENCE, request.getResourceIds());
+		claims.put(AUTHORITIES, names(authentication.getAuthorities()));
+		claims.put(CLIENT_AUTHORITIES, names(request.getAuthorities()));
+		if (accessToken.getExpiration() != null) {
+			claims.put(EXPIRES, accessToken.getExpiration().getTime() / 1000);
+		}
+		claims.put(TOKEN_ID, accessToken.getValue());
+
+		DefaultOAuth2AccessToken result = new DefaultOAuth2AccessToken(accessToken);
+		result.setValue(codec.encode(claims));
+		return result;
+	}
+
+	private static List<String> names(Collection<? extends GrantedAuthority> authorities) {
+		List<String> names = new ArrayList<String>(authorities.size());
+		for (GrantedAuthority authority : authorities) {
+			names.add(authority.getAuthority());
+		}
+		return names;
+	}
+}
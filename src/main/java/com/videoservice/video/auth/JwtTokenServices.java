@@ -0,0 +1,132 @@
+package com.videoservice.video.auth;
+
+import static com.videoservice.video.auth.JwtTokenEnhancer.AUDIENCE;
+import static com.videoservice.video.auth.JwtTokenEnhancer.AUTHORITIES;
+import static com.videoservice.video.auth.JwtTokenEnhancer.CLIENT_AUTHORITIES;
+import static com.videoservice.video.auth.JwtTokenEnhancer.CLIENT_ID;
+import static com.videoservice.video.auth.JwtTokenEnhancer.EXPIRES;
+import static com.videoservice.video.auth.JwtTokenEnhancer.SCOPE;
+import static com.videoservice.video.auth.JwtTokenEnhancer.SUBJECT;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Authenticates resource requests from the JWTs made by JwtTokenEnhancer,
+ * using only the public key. Nothing is shared between nodes.
+ * 
+ * Checking an RSA signature costs far more than the request itself, so
+ * tokens that have been verified are kept, with their parsed claims, in
+ * a bounded cache. Expiry is still checked on every request.
+ */
+public class JwtTokenServices implements ResourceServerTokenServices {
+
+	private static final class Verified {
+
+		final OAuth2Authentication authentication;
+		final DefaultOAuth2AccessToken token;
+
+		Verified(OAuth2Authentication authentication, DefaultOAuth2AccessToken token) {
+			this.authentication = authentication;
+			this.token = token;
+		}
+	}
+
+	private final JwtTokenCodec codec;
+
+	private final Cache<String, Verified> verified;
+
+	public JwtTokenServices(JwtTokenCodec codec, int cacheSize, int cacheSeconds) {
+		this.codec = codec;
+		this.verified = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	@Override
+	public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
+		return verify(accessToken).authentication;
+	}
+
+	@Override
+	public OAuth2AccessToken readAccessToken(String accessToken) {
+		return verify(accessToken).token;
+	}
+
+	private Verified verify(String value) {
+		Verified result = verified.getIfPresent(value);
+		if (result == null) {
+			result = parse(value);
+			verified.put(value, result);
+		}
+		if (result.token.isExpired()) {
+			verified.invalidate(value);
+			throw new InvalidTokenException("Access token expired");
+		}
+		return result;
+	}
+
+	private Verified parse(String value) {
+		Map<String, Object> claims = codec.decode(value);
+
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+		Set<String> scope = strings(claims.get(SCOPE));
+		token.setScope(scope);
+		Object expires = claims.get(EXPIRES);
+		if (expires instanceof Number) {
+			token.setExpiration(new Date(((Number) expires).longValue() * 1000));
+		}
+
+		OAuth2Request request = new OAuth2Request(
+				Collections.<String, String> emptyMap(),
+				(String) claims.get(CLIENT_ID),
+				authorities(claims.get(CLIENT_AUTHORITIES)),
+				true, scope, strings(claims.get(AUDIENCE)), null, null,
+				Collections.<String, Serializable> emptyMap());
+
+		Authentication user = null;
+		String subject = (String) claims.get(SUBJECT);
+		if (subject != null) {
+			user = new UsernamePasswordAuthenticationToken(subject, "N/A", authorities(claims.get(AUTHORITIES)));
+		}
+		return new Verified(new OAuth2Authentication(request, user), token);
+	}
+
+	private static Set<String> strings(Object claim) {
+		Set<String> result = new LinkedHashSet<String>();
+		if (claim instanceof Collection) {
+			for (Object value : (Collection<?>) claim) {
+				result.add(String.valueOf(value));
+			}
+		}
+		return result;
+	}
+
+	private static List<GrantedAuthority> authorities(Object claim) {
+		Set<String> names = strings(claim);
+		return AuthorityUtils.createAuthorityList(names.toArray(new String[names.size()]));
+	}
+}
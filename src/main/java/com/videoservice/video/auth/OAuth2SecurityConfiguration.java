@@ -2,15 +2,21 @@ package com.videoservice.video.auth;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
 
 import org.apache.catalina.connector.Connector;
 import org.apache.coyote.http11.Http11NioProtocol;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
 import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
 import org.springframework.boot.context.embedded.tomcat.TomcatConnectorCustomizer;
 import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
@@ -21,16 +27,18 @@ import org.springframework.security.config.annotation.authentication.builders.Au
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
-import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.oauth2.config.annotation.builders.InMemoryClientDetailsServiceBuilder;
 import org.springframework.security.oauth2.config.annotation.configurers.ClientDetailsServiceConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.AuthorizationServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableAuthorizationServer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableResourceServer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
+import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
-import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+import org.springframework.security.web.access.ExceptionTranslationFilter;
+import org.springframework.transaction.PlatformTransactionManager;
 
 /**
  *	Configure this web application to use OAuth 2.0.
@@ -44,8 +52,8 @@ import org.springframework.security.provisioning.InMemoryUserDetailsManager;
  *  ResourceServer.configure(...) - update this method to apply the appropriate 
  *  set of scope requirements on client requests
  *  
- *  OAuth2Config constructor - update this constructor to create a "real" (not hard-coded) UserDetailsService
- *  and ClientDetailsService for authentication. The current implementation should never be used in any
+ *  OAuth2Config.testAccounts() - replace these hard-coded accounts with "real" users and clients in the
+ *  AccountStore used for authentication. The current accounts should never be used in any
  *  type of production environment as these hard-coded credentials are highly insecure.
  *  
  *  OAuth2SecurityConfiguration.containerCustomizer(...) - update this method to use a real keystore
@@ -53,21 +61,121 @@ import org.springframework.security.provisioning.InMemoryUserDetailsManager;
  *  
  */
 @Configuration
+@EnableConfigurationProperties(HttpsConnectorProperties.class)
 public class OAuth2SecurityConfiguration {
 
+	// Start the app with -Doauth.tokens=jwt to issue signed, self-contained
+	// access tokens instead of random ones kept in the token store. Any
+	// node started with the same keystore can then check an access token
+	// on its own, but two things still don't cross nodes:
+	//  - Refresh tokens would live in the in-memory token store of the
+	//    node that issued them, so none are issued; clients ask for a new
+	//    token with the password grant when theirs expires.
+	//  - Nothing is looked up per request, so a JWT can't be revoked and
+	//    stays valid until it expires. Keep the access token validity of
+	//    the clients short.
+	static final String JWT_TOKENS = "jwt";
+
+	private static final String IF_JWT_TOKENS = "'${oauth.tokens:opaque}'.equalsIgnoreCase('" + JWT_TOKENS + "')";
+
+	/**
+	 * Signs and verifies JWT access tokens with the HTTPS key. Only
+	 * created with -Doauth.tokens=jwt, so the keystore isn't read for
+	 * this otherwise.
+	 */
+	@Bean
+	@ConditionalOnExpression(IF_JWT_TOKENS)
+	public JwtTokenCodec jwtTokenCodec(
+			@Value("${keystore.file:src/main/resources/private/keystore}") String keystoreFile,
+			@Value("${keystore.pass:changeit}") String keystorePass) throws Exception {
+		return JwtTokenCodec.fromKeyStore(keystoreFile, keystorePass, "tomcat");
+	}
+
+	/**
+	 * Remembers up to cacheSize verified tokens for cacheSeconds, so each
+	 * signature is checked about once per token rather than per request.
+	 */
+	@Bean
+	@ConditionalOnExpression(IF_JWT_TOKENS)
+	public JwtTokenServices jwtTokenServices(JwtTokenCodec jwtTokenCodec,
+			@Value("${oauth.tokens.cacheSize:100000}") int cacheSize,
+			@Value("${oauth.tokens.cacheSeconds:300}") int cacheSeconds) {
+		return new JwtTokenServices(jwtTokenCodec, cacheSize, cacheSeconds);
+	}
+
+	/**
+	 * Hashes passwords with BCrypt at the given cost, see
+	 * AccountPasswordEncoder.
+	 */
+	@Bean
+	public AccountPasswordEncoder accountPasswordEncoder(@Value("${account.password.cost:10}") int cost) {
+		return new AccountPasswordEncoder(cost);
+	}
+
+	/**
+	 * Where users and clients are kept: by default a map that only lives
+	 * as long as the app, or with -Daccount.store=jpa the database
+	 * configured in application.properties. An empty store gets the accounts in
+	 * OAuth2Config.testAccounts(), with their passwords hashed.
+	 */
+	@Bean
+	public AccountStore accountStore(
+			@Value("${account.store:memory}") String store,
+			@Value("${account.store.seedTestAccounts:true}") boolean seedTestAccounts,
+			AccountPasswordEncoder accountPasswordEncoder,
+			// The same as hibernate.jdbc.batch_size, see application.properties
+			@Value("${video.repository.batchSize:50}") int batchSize,
+			EntityManagerFactory entityManagerFactory,
+			PlatformTransactionManager transactionManager) {
+		AccountStore accounts = "jpa".equalsIgnoreCase(store)
+				? new JpaAccountStore(entityManagerFactory, transactionManager, batchSize) : new InMemoryAccountStore();
+		if (seedTestAccounts && accounts.count() == 0) {
+			List<Account> seed = OAuth2Config.testAccounts();
+			for (Account account : seed) {
+				if (account.getSecret() != null) {
+					account.setSecret(accountPasswordEncoder.encode(account.getSecret()));
+				}
+			}
+			accounts.saveAll(seed);
+		}
+		return accounts;
+	}
+
 	// This first section of the configuration just makes sure that Spring Security picks
 	// up the UserDetailsService that we create below. 
 	@Configuration
 	@EnableWebSecurity
 	protected static class WebSecurityConfiguration extends WebSecurityConfigurerAdapter {
 		
+		// The same object is also the clientDetailsService bean, so it is
+		// picked by name
 		@Autowired
-		private UserDetailsService userDetailsService;
+		@Qualifier("userDetailsService")
+		private ClientAndUserDetailsService userDetailsService;
 		
+		@Autowired
+		private AccountPasswordEncoder passwordEncoder;
+
+		// Successful logins are remembered for cacheSeconds. Other logins
+		// get at most hashesPerSecond password hashes per user name, and
+		// hashesPerSecondPerAddress per client address
+		@Value("${account.login.cacheSize:10000}")
+		private int loginCacheSize;
+
+		@Value("${account.login.cacheSeconds:60}")
+		private int loginCacheSeconds;
+
+		@Value("${account.login.hashesPerSecond:2}")
+		private double loginHashesPerSecond;
+
+		@Value("${account.login.hashesPerSecondPerAddress:10}")
+		private double loginHashesPerSecondPerAddress;
+
 		@Autowired
 		protected void registerAuthentication(
 				final AuthenticationManagerBuilder auth) throws Exception {
-			auth.userDetailsService(userDetailsService);
+			auth.authenticationProvider(new ThrottledAuthenticationProvider(userDetailsService, passwordEncoder,
+					loginCacheSize, loginCacheSeconds, loginHashesPerSecond, loginHashesPerSecondPerAddress));
 		}
 	}
 	
@@ -80,6 +188,28 @@ public class OAuth2SecurityConfiguration {
 	protected static class ResourceServer extends
 			ResourceServerConfigurerAdapter {
 
+		@Value("${oauth.tokens:opaque}")
+		private String tokens;
+
+		// Only there in jwt mode
+		@Autowired(required = false)
+		private JwtTokenServices jwtTokenServices;
+
+		// With JWT tokens, requests are authenticated from the token itself
+		// instead of a lookup in the token store
+		@Override
+		public void configure(ResourceServerSecurityConfigurer resources) throws Exception {
+			if (JWT_TOKENS.equalsIgnoreCase(tokens)) {
+				resources.tokenServices(jwtTokenServices);
+			}
+		}
+
+		// Start the app with -Doauth.access=expression to check the rules
+		// below with Spring Security's #oauth2 expressions instead of the
+		// compiled scope masks
+		@Value("${oauth.access:compiled}")
+		private String access;
+
 		// This method configures the OAuth scopes required by clients to access
 		// all of the paths in the video service.
 		@Override
@@ -87,26 +217,28 @@ public class OAuth2SecurityConfiguration {
 			
 			http.csrf().disable();
 			
-			http
-			.authorizeRequests()
-				.antMatchers("/oauth/token").anonymous();
-			
+			ScopeAccessRules rules = new ScopeAccessRules()
+				.anonymous("/oauth/token")
 			
-			// If you were going to reuse this class in another
-			// application, this is one of the key sections that you
-			// would want to change
-			
-			// Require all GET requests to have client "read" scope
-			http
-			.authorizeRequests()
-				.antMatchers(HttpMethod.GET, "/**")
-				.access("#oauth2.hasScope('read')");
-			
-			// Require all other requests to have "write" scope
-			http
-			.authorizeRequests()
-				.antMatchers("/**")
-				.access("#oauth2.hasScope('write')");
+				// If you were going to reuse this class in another
+				// application, this is one of the key sections that you
+				// would want to change
+				
+				// Require all GET requests to have client "read" scope
+				.requireScope(HttpMethod.GET, "/**", "read")
+				
+				// Require all other requests to have "write" scope
+				.requireScope(null, "/**", "write");
+
+			if ("expression".equalsIgnoreCase(access)) {
+				rules.applyExpressions(http);
+			} else {
+				// The resource server always sets up authorizeRequests(),
+				// which refuses to build without a mapping. ScopeAccessFilter
+				// runs before it and has already decided.
+				http.authorizeRequests().anyRequest().permitAll();
+				http.addFilterAfter(new ScopeAccessFilter(rules), ExceptionTranslationFilter.class);
+			}
 		}
 
 	}
@@ -125,60 +257,76 @@ public class OAuth2SecurityConfiguration {
 		@Autowired
 		private AuthenticationManager authenticationManager;
 
+		@Value("${oauth.tokens:opaque}")
+		private String tokens;
+
+		// Only there in jwt mode
+		@Autowired(required = false)
+		private JwtTokenCodec jwtTokenCodec;
+
+		@Autowired
+		private AccountStore accountStore;
+
+		@Value("${account.cacheSize:10000}")
+		private int accountCacheSize;
+
+		@Value("${account.cacheSeconds:60}")
+		private int accountCacheSeconds;
+
+		// How long a name that wasn't in the store is answered from memory
+		@Value("${account.missingCacheSeconds:5}")
+		private int accountMissingCacheSeconds;
+
 		// A data structure used to store both a ClientDetailsService and a UserDetailsService
 		private ClientAndUserDetailsService combinedService_;
 
 		/**
 		 * 
-		 * This constructor is used to setup the clients and users that will be able to login to the
-		 * system. This is a VERY insecure setup that is using hard-coded lists of clients / users /
+		 * These are the clients and users that accountStore() puts in an empty store. This
+		 * is a VERY insecure setup that is using hard-coded lists of clients / users /
 		 * passwords and should never be used for anything other than local testing
 		 * on a machine that is not accessible via the Internet. Even if you use
 		 * this code for testing, at the bare minimum, you should consider changing the
-		 * passwords listed below and updating the VideoSvcClientApiTest.
-		 * 
-		 * @param auth
-		 * @throws Exception
+		 * passwords listed below and updating the VideoSvcClientApiTest. Start
+		 * the app with -Daccount.store.seedTestAccounts=false to leave them out.
 		 */
-		public OAuth2Config() throws Exception {
+		static List<Account> testAccounts() {
 			
 			// If you were going to reuse this class in another
 			// application, this is one of the key sections that you
 			// would want to change
 			
-			
-			// Create a service that has the credentials for all our clients
-			ClientDetailsService csvc = new InMemoryClientDetailsServiceBuilder()
+			return Arrays.asList(
 					// Create a client that has "read" and "write" access to the
 			        // video service
-					.withClient("mobile").authorizedGrantTypes("password")
-					.authorities("ROLE_CLIENT", "ROLE_TRUSTED_CLIENT")
-					.scopes("read","write").resourceIds("video")
-					.and()
+					Account.client("mobile", null, "password", "read,write", "video",
+							"ROLE_CLIENT,ROLE_TRUSTED_CLIENT", null),
 					// Create a second client that only has "read" access to the
 					// video service
-					.withClient("mobileReader").authorizedGrantTypes("password")
-					.authorities("ROLE_CLIENT")
-					.scopes("read").resourceIds("video")
-					.accessTokenValiditySeconds(3600).and().build();
-
-			// Create a series of hard-coded users. 
-			UserDetailsService svc = new InMemoryUserDetailsManager(
-					Arrays.asList(
-							User.create("admin", "pass", "ADMIN", "USER"),
-							User.create("user0", "pass", "USER"),
-							User.create("user1", "pass", "USER"),
-							User.create("user2", "pass", "USER"),
-							User.create("user3", "pass", "USER"),
-							User.create("user4", "pass", "USER"),
-							User.create("user5", "pass", "USER")));
-
-			// Since clients have to use BASIC authentication with the client's id/secret,
-			// when sending a request for a password grant, we make each client a user
-			// as well. When the BASIC authentication information is pulled from the
-			// request, this combined UserDetailsService will authenticate that the
-			// client is a valid "user". 
-			combinedService_ = new ClientAndUserDetailsService(csvc, svc);
+					Account.client("mobileReader", null, "password", "read", "video",
+							"ROLE_CLIENT", 3600),
+
+					// Create a series of hard-coded users. 
+					Account.user("admin", "pass", "ADMIN", "USER"),
+					Account.user("user0", "pass", "USER"),
+					Account.user("user1", "pass", "USER"),
+					Account.user("user2", "pass", "USER"),
+					Account.user("user3", "pass", "USER"),
+					Account.user("user4", "pass", "USER"),
+					Account.user("user5", "pass", "USER"));
+		}
+
+		// Since clients have to use BASIC authentication with the client's id/secret,
+		// when sending a request for a password grant, we make each client a user
+		// as well. When the BASIC authentication information is pulled from the
+		// request, this combined UserDetailsService will authenticate that the
+		// client is a valid "user". 
+		private synchronized ClientAndUserDetailsService combinedService() {
+			if (combinedService_ == null) {
+				combinedService_ = new ClientAndUserDetailsService(accountStore, accountCacheSize, accountCacheSeconds,
+						accountMissingCacheSeconds);
+			}
+			return combinedService_;
 		}
 
 		/**
@@ -186,15 +334,15 @@ public class OAuth2SecurityConfiguration {
 		 */
 		@Bean
 		public ClientDetailsService clientDetailsService() throws Exception {
-			return combinedService_;
+			return combinedService();
 		}
 
 		/**
 		 * Return all of our user information to anyone in the framework who requests it.
 		 */
 		@Bean
-		public UserDetailsService userDetailsService() {
-			return combinedService_;
+		public ClientAndUserDetailsService userDetailsService() {
+			return combinedService();
 		}
 
 		/**
@@ -205,6 +353,16 @@ public class OAuth2SecurityConfiguration {
 		public void configure(AuthorizationServerEndpointsConfigurer endpoints)
 				throws Exception {
 			endpoints.authenticationManager(authenticationManager);
+			if (JWT_TOKENS.equalsIgnoreCase(tokens)) {
+				// The same as the default token services, but without refresh
+				// tokens, which only the issuing node could redeem
+				DefaultTokenServices tokenServices = new DefaultTokenServices();
+				tokenServices.setTokenStore(new InMemoryTokenStore());
+				tokenServices.setSupportRefreshToken(false);
+				tokenServices.setClientDetailsService(clientDetailsService());
+				tokenServices.setTokenEnhancer(new JwtTokenEnhancer(jwtTokenCodec));
+				endpoints.tokenServices(tokenServices);
+			}
 		}
 
 		/**
@@ -241,10 +399,23 @@ public class OAuth2SecurityConfiguration {
 	//
 	//       http://tomcat.apache.org/tomcat-7.0-doc/ssl-howto.html
 	//
+    // Responses of the compressible types (JSON and text, but not the
+    // JPEG, zip and video payloads, which are compressed already) that
+    // are at least compressionMinSize bytes long are gzipped for clients
+    // that accept it. Tomcat leaves alone responses that already have a
+    // Content-Encoding, such as the pre-gzipped GET /video pages.
+    //
+    // Thread, connection, keep-alive and TLS session settings come from
+    // the http.connector.* properties, see HttpsConnectorProperties.
     @Bean
     EmbeddedServletContainerCustomizer containerCustomizer(
             @Value("${keystore.file:src/main/resources/private/keystore}") String keystoreFile,
-            @Value("${keystore.pass:changeit}") final String keystorePass) throws Exception {
+            @Value("${keystore.pass:changeit}") final String keystorePass,
+            @Value("${http.compression:on}") final String compression,
+            @Value("${http.compression.minSize:1024}") final int compressionMinSize,
+            @Value("${http.compression.mimeTypes:application/json,text/html,text/plain,text/css,text/xml,application/javascript}")
+            final String compressionMimeTypes,
+            final HttpsConnectorProperties connectorProperties) throws Exception {
 
 		// If you were going to reuse this class in another
 		// application, this is one of the key sections that you
@@ -261,7 +432,7 @@ public class OAuth2SecurityConfiguration {
 		                    new TomcatConnectorCustomizer() {
 								@Override
 								public void customize(Connector connector) {
-									connector.setPort(8443);
+									connector.setPort(connectorProperties.getPort());
 			                        connector.setSecure(true);
 			                        connector.setScheme("https");
 
@@ -271,12 +442,49 @@ public class OAuth2SecurityConfiguration {
 			                        proto.setKeystorePass(keystorePass);
 			                        proto.setKeystoreType("JKS");
 			                        proto.setKeyAlias("tomcat");
+
+			                        tune(connector, proto, connectorProperties);
+
+			                        // "on", "off" or "force"; Tomcat only offers gzip
+			                        connector.setProperty("compression", compression);
+			                        connector.setProperty("compressionMinSize", Integer.toString(compressionMinSize));
+			                        connector.setProperty("compressableMimeType", compressionMimeTypes);
 								}
 		                    });
 		    
 			}
         };
     }
+
+    private static void tune(Connector connector, Http11NioProtocol proto, HttpsConnectorProperties props) {
+		proto.setMaxThreads(props.getMaxThreads());
+		proto.setMinSpareThreads(props.getMinSpareThreads());
+		proto.setBacklog(props.getAcceptCount());
+		proto.setMaxConnections(props.getMaxConnections());
+		proto.setConnectionTimeout(props.getConnectionTimeoutMillis());
+		proto.setKeepAliveTimeout(props.getKeepAliveTimeoutMillis());
+		proto.setMaxKeepAliveRequests(props.getMaxKeepAliveRequests());
+
+		if (props.getSocketReceiveBufferBytes() > 0) {
+			connector.setProperty("socket.rxBufSize", Integer.toString(props.getSocketReceiveBufferBytes()));
+		}
+		if (props.getSocketSendBufferBytes() > 0) {
+			connector.setProperty("socket.txBufSize", Integer.toString(props.getSocketSendBufferBytes()));
+		}
+
+		// JSSE keeps one session cache per SSLContext; resumed handshakes
+		// look the session up by the id the client sends back
+		proto.setSessionCacheSize(Integer.toString(props.getSslSessionCacheSize()));
+		proto.setSessionTimeout(Integer.toString(props.getSslSessionTimeoutSeconds()));
+
+		if (props.getSslProtocols() != null) {
+			// Only the endpoint has this setter in Tomcat 7.0.52
+			connector.setProperty("sslEnabledProtocols", props.getSslProtocols());
+		}
+		if (props.getCiphers() != null) {
+			proto.setCiphers(props.getCiphers());
+		}
+    }
 	
 
 }
@@ -0,0 +1,37 @@
+package com.videoservice.video.auth;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.GenericFilterBean;
+
+/**
+ * Enforces ScopeAccessRules in place of the FilterSecurityInterceptor.
+ * It has to sit after the ExceptionTranslationFilter, which turns the
+ * AccessDeniedException into a 401 for anonymous requests and into the
+ * OAuth2 403 otherwise, just as for a failed expression.
+ */
+public class ScopeAccessFilter extends GenericFilterBean {
+
+	private final ScopeAccessRules rules;
+
+	public ScopeAccessFilter(ScopeAccessRules rules) {
+		this.rules = rules;
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		if (!rules.isAllowed((HttpServletRequest) request, SecurityContextHolder.getContext().getAuthentication())) {
+			throw new AccessDeniedException("Access is denied");
+		}
+		chain.doFilter(request, response);
+	}
+}
@@ -0,0 +1,143 @@
+package com.videoservice.video.auth;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The resource server's access rules, compiled to bit masks: each scope
+ * named in a rule gets a bit, each rule the mask of the scopes it needs,
+ * and each authenticated token the mask of the scopes it was granted.
+ * A decision is then the first matching rule and one AND, instead of a
+ * SpEL evaluation per request.
+ * 
+ * Token masks are memoized per authentication. Both the token store and
+ * JwtTokenServices hand out the same OAuth2Authentication for the same
+ * token, so that is once per token; the entry goes away with the object.
+ * 
+ * Rules are checked in the order they were added, like
+ * http.authorizeRequests(), and requests that match none are allowed.
+ */
+public class ScopeAccessRules {
+
+	private static final class Rule {
+
+		final HttpMethod method;
+		final String pattern;
+		final AntPathRequestMatcher matcher;
+		// Only anonymous requests when true, otherwise all of requiredScopes
+		final boolean anonymous;
+		final String scope;
+		final long requiredScopes;
+
+		Rule(HttpMethod method, String pattern, boolean anonymous, String scope, long requiredScopes) {
+			this.method = method;
+			this.pattern = pattern;
+			this.matcher = method == null ? new AntPathRequestMatcher(pattern)
+					: new AntPathRequestMatcher(pattern, method.name());
+			this.anonymous = anonymous;
+			this.scope = scope;
+			this.requiredScopes = requiredScopes;
+		}
+	}
+
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	private final Map<String, Long> scopeBits = new LinkedHashMap<String, Long>();
+
+	private final Cache<Authentication, Long> grantedScopes = CacheBuilder.newBuilder().weakKeys().build();
+
+	/**
+	 * Only allow requests without a token.
+	 */
+	public ScopeAccessRules anonymous(String pattern) {
+		rules.add(new Rule(null, pattern, true, null, 0));
+		return this;
+	}
+
+	/**
+	 * Require the scope for requests with the method (null for any) to
+	 * paths matching the Ant pattern.
+	 */
+	public ScopeAccessRules requireScope(HttpMethod method, String pattern, String scope) {
+		rules.add(new Rule(method, pattern, false, scope, bit(scope)));
+		return this;
+	}
+
+	public boolean isAllowed(HttpServletRequest request, Authentication authentication) {
+		for (Rule rule : rules) {
+			if (rule.matcher.matches(request)) {
+				if (rule.anonymous) {
+					return authentication == null || authentication instanceof AnonymousAuthenticationToken;
+				}
+				return (scopes(authentication) & rule.requiredScopes) == rule.requiredScopes;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Register the same rules as #oauth2 expressions, for running without
+	 * the compiled check.
+	 */
+	public void applyExpressions(HttpSecurity http) throws Exception {
+		for (Rule rule : rules) {
+			String expression = rule.anonymous ? "anonymous" : "#oauth2.hasScope('" + rule.scope + "')";
+			if (rule.method == null) {
+				http.authorizeRequests().antMatchers(rule.pattern).access(expression);
+			} else {
+				http.authorizeRequests().antMatchers(rule.method, rule.pattern).access(expression);
+			}
+		}
+	}
+
+	private long bit(String scope) {
+		Long bit = scopeBits.get(scope);
+		if (bit == null) {
+			if (scopeBits.size() == Long.SIZE) {
+				throw new IllegalArgumentException("More than " + Long.SIZE + " scopes");
+			}
+			bit = 1L << scopeBits.size();
+			scopeBits.put(scope, bit);
+		}
+		return bit;
+	}
+
+	private long scopes(final Authentication authentication) {
+		if (!(authentication instanceof OAuth2Authentication)) {
+			return 0;
+		}
+		try {
+			return grantedScopes.get(authentication, new Callable<Long>() {
+				@Override
+				public Long call() {
+					long mask = 0;
+					for (String scope : ((OAuth2Authentication) authentication).getOAuth2Request().getScope()) {
+						Long bit = scopeBits.get(scope);
+						if (bit != null) {
+							mask |= bit;
+						}
+					}
+					return mask;
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.videoservice.video.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Checks user name and password logins, such as the password grant and
+ * the clients' HTTP Basic logins on /oauth/token, without doing a BCrypt
+ * hash for every one of them.
+ * 
+ * Successful checks are remembered for a short time. The cache is keyed
+ * by an HMAC of the name, the password and the stored hash, under a key
+ * that is made on startup and never leaves memory. The cache holds no
+ * passwords, and a changed password no longer matches the old entries.
+ * 
+ * Checks that do need a hash are limited per client address, and then
+ * per user name from that address, so a burst of logins, or guesses, can
+ * only take so much CPU. The name limit is per address so that guesses
+ * from one address can't lock the owner out from another; it keeps a
+ * single user behind a shared address from using up its whole limit.
+ * The limits apply before the user is looked up, because for unknown
+ * names DaoAuthenticationProvider hashes the password all the same (so
+ * that the timing doesn't tell which names exist). Logins that are in
+ * the cache skip the limits. A login over a limit fails with an
+ * AuthenticationServiceException, as the account itself is fine.
+ * 
+ * A successful login against a plaintext secret stores its hash in place
+ * of the secret, see AccountPasswordEncoder.
+ */
+public class ThrottledAuthenticationProvider extends DaoAuthenticationProvider {
+
+	private static final String HMAC = "HmacSHA256";
+
+	private final Cache<String, Boolean> verified;
+
+	// Keyed by name and address
+	private final Cache<String, RateLimiter> limiters;
+
+	private final Cache<String, RateLimiter> addressLimiters;
+
+	private final double hashesPerSecond;
+
+	private final double hashesPerSecondPerAddress;
+
+	private final ClientAndUserDetailsService accounts;
+
+	private final AccountPasswordEncoder encoder;
+
+	private final ThreadLocal<Mac> mac;
+
+	public ThrottledAuthenticationProvider(ClientAndUserDetailsService accounts, AccountPasswordEncoder encoder,
+			int cacheSize, int cacheSeconds, double hashesPerSecond, double hashesPerSecondPerAddress) {
+		setUserDetailsService(accounts);
+		setPasswordEncoder(encoder);
+		this.accounts = accounts;
+		this.encoder = encoder;
+		this.verified = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheSeconds, TimeUnit.SECONDS)
+				.build();
+		this.limiters = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterAccess(1, TimeUnit.MINUTES)
+				.build();
+		this.addressLimiters = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterAccess(1, TimeUnit.MINUTES)
+				.build();
+		this.hashesPerSecond = hashesPerSecond;
+		this.hashesPerSecondPerAddress = hashesPerSecondPerAddress;
+
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		final SecretKeySpec secret = new SecretKeySpec(key, HMAC);
+		this.mac = new ThreadLocal<Mac>() {
+			@Override
+			protected Mac initialValue() {
+				try {
+					Mac mac = Mac.getInstance(HMAC);
+					mac.init(secret);
+					return mac;
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+
+	@Override
+	public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+		if (authentication.getCredentials() != null && !isVerified(authentication)) {
+			String address = remoteAddress(authentication);
+			if (address != null && !limiter(addressLimiters, address, hashesPerSecondPerAddress).tryAcquire()) {
+				throw new AuthenticationServiceException("Too many login attempts from " + address);
+			}
+			// Addresses never contain a NUL, so the last one splits every key
+			String key = authentication.getName() + '\0' + (address != null ? address : "");
+			if (!limiter(limiters, key, hashesPerSecond).tryAcquire()) {
+				throw new AuthenticationServiceException("Too many login attempts for " + authentication.getName());
+			}
+		}
+		return super.authenticate(authentication);
+	}
+
+	@Override
+	protected void additionalAuthenticationChecks(UserDetails userDetails,
+			UsernamePasswordAuthenticationToken authentication) throws AuthenticationException {
+		Object credentials = authentication.getCredentials();
+		if (credentials == null) {
+			super.additionalAuthenticationChecks(userDetails, authentication);
+			return;
+		}
+		String key = digest(userDetails.getUsername(), credentials.toString(), userDetails.getPassword());
+		if (verified.getIfPresent(key) != null) {
+			return;
+		}
+		super.additionalAuthenticationChecks(userDetails, authentication);
+		verified.put(key, Boolean.TRUE);
+		if (AccountPasswordEncoder.needsHashing(userDetails.getPassword())) {
+			try {
+				accounts.updateSecret(userDetails.getUsername(), encoder.encode(credentials.toString()));
+			} catch (RuntimeException e) {
+				// The login is good either way, the next one tries again
+				logger.warn("Could not hash the secret of " + userDetails.getUsername(), e);
+			}
+		}
+	}
+
+	// Whether the login is in the cache, which only needs the account,
+	// and loading that is cheap
+	private boolean isVerified(Authentication authentication) {
+		UserDetails user;
+		try {
+			user = getUserDetailsService().loadUserByUsername(authentication.getName());
+		} catch (RuntimeException e) {
+			// Unknown names, and failures that super reports itself
+			return false;
+		}
+		return user != null && verified.getIfPresent(
+				digest(user.getUsername(), authentication.getCredentials().toString(), user.getPassword())) != null;
+	}
+
+	// HTTP Basic logins carry the address in their details; the password
+	// grant doesn't, but runs inside the request to /oauth/token
+	private static String remoteAddress(Authentication authentication) {
+		if (authentication.getDetails() instanceof WebAuthenticationDetails) {
+			return ((WebAuthenticationDetails) authentication.getDetails()).getRemoteAddress();
+		}
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (attributes instanceof ServletRequestAttributes) {
+			return ((ServletRequestAttributes) attributes).getRequest().getRemoteAddr();
+		}
+		return null;
+	}
+
+	private static RateLimiter limiter(Cache<String, RateLimiter> limiters, String key, final double permitsPerSecond) {
+		try {
+			return limiters.get(key, new Callable<RateLimiter>() {
+				@Override
+				public RateLimiter call() {
+					return RateLimiter.create(permitsPerSecond);
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private String digest(String username, String password, String storedPassword) {
+		Mac mac = this.mac.get();
+		update(mac, username);
+		update(mac, password);
+		update(mac, storedPassword);
+		return BaseEncoding.base64().encode(mac.doFinal());
+	}
+
+	// Length-prefixed, so that ("ab", "c") and ("a", "bc") differ
+	private static void update(Mac mac, String value) {
+		byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+		mac.update((byte) (bytes.length >>> 24));
+		mac.update((byte) (bytes.length >>> 16));
+		mac.update((byte) (bytes.length >>> 8));
+		mac.update((byte) bytes.length);
+		mac.update(bytes);
+	}
+}
@@ -4,16 +4,22 @@ import java.util.Collection;
 
 
 import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoUploadStatus;
 
+import retrofit.Callback;
 import retrofit.client.Response;
 import retrofit.http.Body;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.Multipart;
 import retrofit.http.POST;
+import retrofit.http.PUT;
 import retrofit.http.Part;
 import retrofit.http.Path;
+import retrofit.http.Query;
 import retrofit.http.Streaming;
 import retrofit.mime.TypedFile;
+import retrofit.mime.TypedOutput;
 
 /**
  * This interface defines an API for a VideoSvc. The
@@ -42,15 +48,140 @@ public interface ImageSvcApi {
 			
 	public static final String IMAGE_DATA_PATH = IMAGE_SVC_PATH + "/{"+ ImageSvcApi.ID_EFFECT +"}/data";
 
+	public static final String IMAGE_ASYNC_DATA_PATH = IMAGE_DATA_PATH + "/async";
+
+	public static final String EFFECTS_PARAMETER = "effects";
+
+	public static final String MAX_DIMENSION_PARAMETER = "maxDimension";
+
+	public static final String IMAGE_BATCH_DATA_PATH = IMAGE_SVC_PATH + "/batch/data";
+
+	public static final String CURSOR_PARAMETER = "cursor";
+
+	public static final String LIMIT_PARAMETER = "limit";
+
+	public static final String OWNER_PARAMETER = "owner";
+
+	public static final String SUBJECT_PARAMETER = "subject";
+
+	public static final String LOCATION_PARAMETER = "location";
+
+	public static final String MIN_RATING_PARAMETER = "minRating";
+
+	public static final String MAX_RATING_PARAMETER = "maxRating";
+
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+	public static final String VIDEO_DATA_PATH = VIDEO_SVC_PATH + "/{" + ID_PARAMETER + "}/data";
+
+	public static final String UPLOAD_ID_PARAMETER = "uploadId";
+
+	public static final String SIZE_PARAMETER = "size";
+
+	public static final String OFFSET_PARAMETER = "offset";
+
+	public static final String CONTENT_MD5_HEADER = "Content-MD5";
+
+	public static final String VIDEO_UPLOAD_PATH = VIDEO_DATA_PATH + "/upload";
+
+	public static final String VIDEO_UPLOAD_ID_PATH = VIDEO_UPLOAD_PATH + "/{" + UPLOAD_ID_PARAMETER + "}";
+
+	public static final String VIDEO_UPLOAD_COMPLETE_PATH = VIDEO_UPLOAD_ID_PATH + "/complete";
+
 	
+	/**
+	 * Only the first page of videos, of the server's default size
+	 * (video.page.defaultSize, 100). The server no longer returns the
+	 * whole collection; use VideoPages.findAll for every video.
+	 */
 	@GET(VIDEO_SVC_PATH)
 	public Collection<Video> getVideoList();
+
+	/**
+	 * One page of the videos after the cursor (a video id, 0 for the first
+	 * page), ordered by id. Null parameters are left out of the request.
+	 * The server caps limit at video.page.maxSize, so a page may be
+	 * shorter than asked for without being the last one. The
+	 * X-Next-Cursor header holds the cursor of the following page and is
+	 * only missing on the last one; VideoPages.read gives both.
+	 */
+	@GET(VIDEO_SVC_PATH)
+	public Response findVideos(@Query(CURSOR_PARAMETER) long cursor, @Query(LIMIT_PARAMETER) Integer limit,
+			@Query(OWNER_PARAMETER) String owner, @Query(SUBJECT_PARAMETER) String subject,
+			@Query(LOCATION_PARAMETER) String location, @Query(MIN_RATING_PARAMETER) Integer minRating,
+			@Query(MAX_RATING_PARAMETER) Integer maxRating);
 	
 	
+	/**
+	 * Downloads the video data. Pass a Range header such as "bytes=1000-"
+	 * to resume a download or seek; the server answers 206 with only that
+	 * part of the file.
+	 */
+	@Streaming
+	@GET(VIDEO_DATA_PATH)
+	public Response getVideoData(@Path(ID_PARAMETER) long id, @Header("Range") String range);
+
+	/**
+	 * Starts a chunked upload of size bytes of video data. Send the data
+	 * with putVideoChunk, in any order and over as many connections as
+	 * needed, then call completeVideoUpload.
+	 */
+	@POST(VIDEO_UPLOAD_PATH)
+	public VideoUploadStatus startVideoUpload(@Path(ID_PARAMETER) long id, @Query(SIZE_PARAMETER) long size);
+
+	/**
+	 * Writes one chunk at offset. md5 is the Base64 encoded MD5 digest of
+	 * the chunk; chunks that do not match it are answered with 400 and
+	 * must be sent again.
+	 */
+	@PUT(VIDEO_UPLOAD_ID_PATH)
+	public VideoUploadStatus putVideoChunk(@Path(ID_PARAMETER) long id, @Path(UPLOAD_ID_PARAMETER) String uploadId,
+			@Query(OFFSET_PARAMETER) long offset, @Header(CONTENT_MD5_HEADER) String md5, @Body TypedOutput chunk);
+
+	/**
+	 * The ranges received so far, to resume an interrupted upload.
+	 */
+	@GET(VIDEO_UPLOAD_ID_PATH)
+	public VideoUploadStatus getVideoUpload(@Path(ID_PARAMETER) long id, @Path(UPLOAD_ID_PARAMETER) String uploadId);
+
+	@POST(VIDEO_UPLOAD_COMPLETE_PATH)
+	public VideoUploadStatus completeVideoUpload(@Path(ID_PARAMETER) long id,
+			@Path(UPLOAD_ID_PARAMETER) String uploadId);
+
 	@Streaming
 	@Multipart
 	@POST(IMAGE_DATA_PATH)
 	public Response setImageData(@Path(ID_EFFECT) long id, @Part(DATA_PARAMETER) TypedFile imageData);
 
+	/**
+	 * Applies the effect to a preview of the image whose longest side is
+	 * at most maxDimension pixels. The server scales the image down before
+	 * filtering it, so small previews are much cheaper than full images.
+	 */
+	@Streaming
+	@Multipart
+	@POST(IMAGE_DATA_PATH)
+	public Response setImagePreviewData(@Path(ID_EFFECT) long id, @Query(MAX_DIMENSION_PARAMETER) int maxDimension,
+			@Part(DATA_PARAMETER) TypedFile imageData);
+
+	/**
+	 * Uploads the image to the asynchronous endpoint. The call returns
+	 * immediately and the filtered image is delivered to the callback.
+	 */
+	@Multipart
+	@POST(IMAGE_ASYNC_DATA_PATH)
+	public void setImageDataAsync(@Path(ID_EFFECT) long id, @Part(DATA_PARAMETER) TypedFile imageData,
+			Callback<Response> callback);
+
+	/**
+	 * Applies every effect in the comma separated list (e.g. "0,1,3") to a
+	 * single upload. The response body is a zip archive holding one
+	 * "<effect>.jpg" entry per effect.
+	 */
+	@Streaming
+	@Multipart
+	@POST(IMAGE_BATCH_DATA_PATH)
+	public Response setImageDataBatch(@Query(EFFECTS_PARAMETER) String effects, @Part(DATA_PARAMETER) TypedFile imageData);
+
 	
 }
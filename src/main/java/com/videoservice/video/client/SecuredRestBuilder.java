@@ -6,9 +6,15 @@
  */
 package com.videoservice.video.client;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.IOUtils;
 
@@ -29,14 +35,15 @@ import retrofit.converter.Converter;
 import retrofit.mime.FormUrlEncodedTypedOutput;
 
 import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 /**
  * A Builder class for a Retrofit REST Adapter. Extends the default implementation by providing logic to
- * handle an OAuth 2.0 password grant login flow. The RestAdapter that it produces uses an interceptor
+ * handle an OAuth 2.0 password grant login flow. The RestAdapter that it produces wraps its client
  * to automatically obtain a bearer token from the authorization server and insert it into all client
- * requests.
+ * requests. One adapter can be shared by any number of threads.
  * 
  * You can use it like this:
  * 
@@ -54,16 +61,88 @@ import com.google.gson.JsonObject;
  */
 public class SecuredRestBuilder extends RestAdapter.Builder {
 
-	private class OAuthHandler implements RequestInterceptor {
+	/**
+	 * The handler's view of the access token. Instances never change; the
+	 * handler swaps them with compareAndSet, so threads agree on who logs
+	 * in without taking a lock.
+	 */
+	private static final class TokenState {
+
+		static final TokenState LOGGED_OUT = new TokenState(null, null, 0, 0, null);
+
+		// null before the first login
+		final String accessToken;
+		final String refreshToken;
+		// Long.MAX_VALUE when the server gave no expires_in
+		final long expiresAt;
+		final long refreshAt;
+		// Set while one thread fetches a new token; the others wait for
+		// it, or keep using accessToken while it is still valid
+		final SettableFuture<TokenState> pending;
+
+		TokenState(String accessToken, String refreshToken, long expiresAt, long refreshAt,
+				SettableFuture<TokenState> pending) {
+			this.accessToken = accessToken;
+			this.refreshToken = refreshToken;
+			this.expiresAt = expiresAt;
+			this.refreshAt = refreshAt;
+			this.pending = pending;
+		}
+
+		boolean isValid(long now) {
+			return accessToken != null && now < expiresAt;
+		}
+
+		TokenState fetching(SettableFuture<TokenState> future) {
+			return new TokenState(accessToken, refreshToken, expiresAt, refreshAt, future);
+		}
+
+		TokenState idle(long refreshAt) {
+			return new TokenState(accessToken, refreshToken, expiresAt, refreshAt, null);
+		}
 
-		private boolean loggedIn;
+		TokenState expired() {
+			return new TokenState(accessToken, refreshToken, 0, 0, null);
+		}
+	}
+
+	// Refreshes happen off the request threads, one at a time for all
+	// the adapters in the process
+	private static final Executor REFRESH_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "oauth-token-refresh");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// A token is refreshed once this much of its lifetime has passed
+	private static final double REFRESH_AFTER = 0.8;
+
+	// How long to wait before trying again after a background refresh failed
+	private static final long REFRESH_RETRY_MILLIS = 10000;
+
+	/**
+	 * Wraps the adapter's client so that every request carries a bearer
+	 * token from the authorization server.
+	 * 
+	 * The first request, or the first one after the token has expired,
+	 * logs in with an OAuth 2.0 password grant. Only one thread logs in;
+	 * the others that need a token wait for it. Once expires_in is 80%
+	 * over, the token is refreshed in the background while requests go on
+	 * with the old one. A request that gets a 401 anyway is sent once more
+	 * with a new token.
+	 */
+	private class OAuthHandler implements Client {
+
+		private final AtomicReference<TokenState> state = new AtomicReference<TokenState>(TokenState.LOGGED_OUT);
 		private Client client;
 		private String tokenIssuingEndpoint;
 		private String username;
 		private String password;
 		private String clientId;
 		private String clientSecret;
-		private String accessToken;
 
 		public OAuthHandler(Client client, String tokenIssuingEndpoint, String username,
 				String password, String clientId, String clientSecret) {
@@ -76,84 +155,190 @@ public class SecuredRestBuilder extends RestAdapter.Builder {
 			this.clientSecret = clientSecret;
 		}
 
-		/**
-		 * Every time a method on the client interface is invoked, this method is
-		 * going to get called. The method checks if the client has previously obtained
-		 * an OAuth 2.0 bearer token. If not, the method obtains the bearer token by
-		 * sending a password grant request to the server. 
-		 * 
-		 * Once this method has obtained a bearer token, all future invocations will
-		 * automatically insert the bearer token as the "Authorization" header in 
-		 * outgoing HTTP requests.
-		 * 
-		 */
 		@Override
-		public void intercept(RequestFacade request) {
-			// If we're not logged in, login and store the authentication token.
-			if (!loggedIn) {
-				try {
-					// This code below programmatically builds an OAuth 2.0 password
-					// grant request and sends it to the server. 
-					
-					// Encode the username and password into the body of the request.
-					FormUrlEncodedTypedOutput to = new FormUrlEncodedTypedOutput();
-					to.addField("username", username);
-					to.addField("password", password);
-					
-					// Add the client ID and client secret to the body of the request.
-					to.addField("client_id", clientId);
-					to.addField("client_secret", clientSecret);
-					
-					// Indicate that we're using the OAuth Password Grant Flow
-					// by adding grant_type=password to the body
-					to.addField("grant_type", "password");
-					
-					// The password grant requires BASIC authentication of the client.
-					// In order to do BASIC authentication, we need to concatenate the
-					// client_id and client_secret values together with a colon and then
-					// Base64 encode them. The final value is added to the request as
-					// the "Authorization" header and the value is set to "Basic " 
-					// concatenated with the Base64 client_id:client_secret value described
-					// above.
-					String base64Auth = BaseEncoding.base64().encode(new String(clientId + ":" + clientSecret).getBytes());
-					// Add the basic authorization header
-					List<Header> headers = new ArrayList<Header>();
-					headers.add(new Header("Authorization", "Basic " + base64Auth));
-
-					// Create the actual password grant request using the data above
-					Request req = new Request("POST", tokenIssuingEndpoint, headers, to);
-					
-					// Request the password grant.
-					Response resp = client.execute(req);
-					
-					// Make sure the server responded with 200 OK
-					if (resp.getStatus() < 200 || resp.getStatus() > 299) {
-						// If not, we probably have bad credentials
-						throw new SecuredRestException("Login failure: "
-								+ resp.getStatus() + " - " + resp.getReason());
-					} else {
-						// Extract the string body from the response
-				        String body = IOUtils.toString(resp.getBody().in());
-						
-						// Extract the access_token (bearer token) from the response so that we
-				        // can add it to future requests.
-						accessToken = new Gson().fromJson(body, JsonObject.class).get("access_token").getAsString();
-						
-						// Add the access_token to this request as the "Authorization"
-						// header.
-						request.addHeader("Authorization", "Bearer " + accessToken);	
-						
-						// Let future calls know we've already fetched the access token
-						loggedIn = true;
+		public Response execute(Request request) throws IOException {
+			String accessToken = accessToken();
+			Response response = client.execute(authorize(request, accessToken));
+			if (response.getStatus() == 401) {
+				discard(response);
+				invalidate(accessToken);
+				response = client.execute(authorize(request, accessToken()));
+			}
+			return response;
+		}
+
+		private Request authorize(Request request, String accessToken) {
+			List<Header> headers = new ArrayList<Header>(request.getHeaders());
+			// Add the access_token to this request as the "Authorization"
+			// header.
+			headers.add(new Header("Authorization", "Bearer " + accessToken));
+			return new Request(request.getMethod(), request.getUrl(), headers, request.getBody());
+		}
+
+		private String accessToken() {
+			while (true) {
+				TokenState current = state.get();
+				long now = System.currentTimeMillis();
+				if (current.isValid(now)) {
+					if (now >= current.refreshAt && current.pending == null) {
+						refreshInBackground(current);
+					}
+					return current.accessToken;
+				}
+				SettableFuture<TokenState> pending = current.pending;
+				if (pending == null) {
+					pending = SettableFuture.create();
+					if (!state.compareAndSet(current, current.fetching(pending))) {
+						// Someone else changed the state first, look again
+						continue;
 					}
-				} catch (Exception e) {
+					fetch(current, pending);
+				}
+				try {
+					return pending.get().accessToken;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 					throw new SecuredRestException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof SecuredRestException) {
+						throw (SecuredRestException) e.getCause();
+					}
+					throw new SecuredRestException(e.getCause());
+				}
+			}
+		}
+
+		private void refreshInBackground(final TokenState current) {
+			final SettableFuture<TokenState> pending = SettableFuture.create();
+			if (state.compareAndSet(current, current.fetching(pending))) {
+				REFRESH_EXECUTOR.execute(new Runnable() {
+					@Override
+					public void run() {
+						fetch(current, pending);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Only the thread that installed pending gets here, and nobody else
+		 * changes the state until it is done.
+		 */
+		private void fetch(TokenState current, SettableFuture<TokenState> pending) {
+			try {
+				TokenState next = login(current.refreshToken);
+				state.set(next);
+				pending.set(next);
+			} catch (Exception e) {
+				// Keep a still valid token, but don't try again right away
+				state.set(current.idle(System.currentTimeMillis() + REFRESH_RETRY_MILLIS));
+				pending.setException(e);
+			}
+		}
+
+		/**
+		 * Forget a token that the server rejected, unless a newer one has
+		 * replaced it already.
+		 */
+		private void invalidate(String accessToken) {
+			TokenState current = state.get();
+			if (current.pending == null && accessToken.equals(current.accessToken)) {
+				state.compareAndSet(current, current.expired());
+			}
+		}
+
+		/**
+		 * Get a new token, with the refresh token if the server gave us one
+		 * and otherwise, or if it no longer works, with the password.
+		 */
+		private TokenState login(String refreshToken) throws IOException {
+			if (refreshToken != null) {
+				FormUrlEncodedTypedOutput to = new FormUrlEncodedTypedOutput();
+				to.addField("grant_type", "refresh_token");
+				to.addField("refresh_token", refreshToken);
+				to.addField("client_id", clientId);
+				to.addField("client_secret", clientSecret);
+				try {
+					return requestToken(to);
+				} catch (SecuredRestException e) {
+					// Fall back to the password grant below
 				}
 			}
-			else {
-				// Add the access_token that we previously obtained to this request as 
-				// the "Authorization" header.
-				request.addHeader("Authorization", "Bearer " + accessToken );
+
+			// This code below programmatically builds an OAuth 2.0 password
+			// grant request and sends it to the server. 
+			
+			// Encode the username and password into the body of the request.
+			FormUrlEncodedTypedOutput to = new FormUrlEncodedTypedOutput();
+			to.addField("username", username);
+			to.addField("password", password);
+			
+			// Add the client ID and client secret to the body of the request.
+			to.addField("client_id", clientId);
+			to.addField("client_secret", clientSecret);
+			
+			// Indicate that we're using the OAuth Password Grant Flow
+			// by adding grant_type=password to the body
+			to.addField("grant_type", "password");
+
+			return requestToken(to);
+		}
+
+		private TokenState requestToken(FormUrlEncodedTypedOutput to) throws IOException {
+			// The password grant requires BASIC authentication of the client.
+			// In order to do BASIC authentication, we need to concatenate the
+			// client_id and client_secret values together with a colon and then
+			// Base64 encode them. The final value is added to the request as
+			// the "Authorization" header and the value is set to "Basic " 
+			// concatenated with the Base64 client_id:client_secret value described
+			// above.
+			String base64Auth = BaseEncoding.base64().encode(new String(clientId + ":" + clientSecret).getBytes());
+			// Add the basic authorization header
+			List<Header> headers = new ArrayList<Header>();
+			headers.add(new Header("Authorization", "Basic " + base64Auth));
+
+			// Create the actual token request using the data above
+			Request req = new Request("POST", tokenIssuingEndpoint, headers, to);
+			
+			// Request the token.
+			long now = System.currentTimeMillis();
+			Response resp = client.execute(req);
+			
+			// Make sure the server responded with 200 OK
+			if (resp.getStatus() < 200 || resp.getStatus() > 299) {
+				discard(resp);
+				// If not, we probably have bad credentials
+				throw new SecuredRestException("Login failure: "
+						+ resp.getStatus() + " - " + resp.getReason());
+			}
+			// Extract the string body from the response
+			String body;
+			try (InputStream in = resp.getBody().in()) {
+				body = IOUtils.toString(in);
+			}
+			
+			// Extract the access_token (bearer token) from the response so that we
+			// can add it to future requests, and find out how long it is good for.
+			JsonObject json = new Gson().fromJson(body, JsonObject.class);
+			String accessToken = json.get("access_token").getAsString();
+			String refreshToken = json.has("refresh_token") ? json.get("refresh_token").getAsString() : null;
+			long expiresAt = Long.MAX_VALUE;
+			long refreshAt = Long.MAX_VALUE;
+			if (json.has("expires_in")) {
+				long lifetime = json.get("expires_in").getAsLong() * 1000;
+				expiresAt = now + lifetime;
+				refreshAt = now + (long) (lifetime * REFRESH_AFTER);
+			}
+			return new TokenState(accessToken, refreshToken, expiresAt, refreshAt, null);
+		}
+
+		private void discard(Response response) {
+			if (response.getBody() != null) {
+				try {
+					response.getBody().in().close();
+				} catch (IOException e) {
+					// Nothing more to read from it anyway
+				}
 			}
 		}
 
@@ -273,7 +458,7 @@ public class SecuredRestBuilder extends RestAdapter.Builder {
 			client = new OkClient();
 		}
 		OAuthHandler hdlr = new OAuthHandler(client, loginUrl, username, password, clientId, clientSecret);
-		setRequestInterceptor(hdlr);
+		super.setClient(hdlr);
 
 		return super.build();
 	}
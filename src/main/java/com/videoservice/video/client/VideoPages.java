@@ -0,0 +1,76 @@
+package com.videoservice.video.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoPage;
+
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+
+/**
+ * Reads the pages that ImageSvcApi.findVideos returns. The next cursor
+ * is only sent as the X-Next-Cursor header, which a typed Retrofit
+ * result would drop, so findVideos returns the raw Response.
+ * 
+ * The converter has to be the one the RestAdapter was built with; the
+ * methods without one use Retrofit's default, Gson.
+ */
+public class VideoPages {
+
+	private static final Converter DEFAULT_CONVERTER = new GsonConverter(new Gson());
+
+	private VideoPages() {
+	}
+
+	public static VideoPage read(Response response) {
+		return read(response, DEFAULT_CONVERTER);
+	}
+
+	/**
+	 * The videos in the response body, and the cursor of the following
+	 * page, or null when this was the last one.
+	 */
+	public static VideoPage read(Response response, Converter converter) {
+		Video[] videos;
+		try {
+			videos = (Video[]) converter.fromBody(response.getBody(), Video[].class);
+		} catch (ConversionException e) {
+			throw new SecuredRestException("Unreadable video page", e);
+		}
+		Long nextCursor = null;
+		for (Header header : response.getHeaders()) {
+			if (ImageSvcApi.NEXT_CURSOR_HEADER.equalsIgnoreCase(header.getName())) {
+				nextCursor = Long.valueOf(header.getValue());
+			}
+		}
+		return new VideoPage(Arrays.asList(videos), nextCursor);
+	}
+
+	public static List<Video> findAll(ImageSvcApi svc) {
+		return findAll(svc, DEFAULT_CONVERTER);
+	}
+
+	/**
+	 * Every video, following the cursors until the last page. This makes
+	 * one request per page of the server's default size.
+	 */
+	public static List<Video> findAll(ImageSvcApi svc, Converter converter) {
+		List<Video> videos = new ArrayList<Video>();
+		long cursor = 0;
+		while (true) {
+			VideoPage page = read(svc.findVideos(cursor, null, null, null, null, null, null), converter);
+			videos.addAll(page.getVideos());
+			if (page.getNextCursor() == null) {
+				return videos;
+			}
+			cursor = page.getNextCursor();
+		}
+	}
+}
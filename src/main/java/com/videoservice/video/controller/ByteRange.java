@@ -0,0 +1,81 @@
+package com.videoservice.video.controller;
+
+/**
+ * A single "bytes=first-last" range from a Range header, resolved against
+ * the size of the file.
+ * 
+ * Only single ranges are supported. Multiple ranges ("bytes=0-1,5-9") and
+ * headers that cannot be parsed are ignored, which the HTTP spec allows,
+ * and the whole file is sent instead.
+ */
+class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes=";
+
+	private final long first;
+
+	private final long last;
+
+	ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * The requested range, clipped to the file, or null to send the whole
+	 * file.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the range starts past the end of the file, which is
+	 *             answered with 416
+	 */
+	static ByteRange parse(String header, long size) {
+		if (header == null || !header.startsWith(BYTES_UNIT) || header.indexOf(',') >= 0) {
+			return null;
+		}
+		String spec = header.substring(BYTES_UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			String from = spec.substring(0, dash).trim();
+			String to = spec.substring(dash + 1).trim();
+			if (from.isEmpty()) {
+				// "bytes=-500" is the last 500 bytes
+				long suffix = Long.parseLong(to);
+				if (suffix <= 0 || size == 0) {
+					throw new IllegalArgumentException("Unsatisfiable range " + header);
+				}
+				return new ByteRange(Math.max(0, size - suffix), size - 1);
+			}
+			long first = Long.parseLong(from);
+			long last = to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to);
+			if (last < first) {
+				return null;
+			}
+			if (first >= size) {
+				throw new IllegalArgumentException("Unsatisfiable range " + header);
+			}
+			return new ByteRange(first, Math.min(last, size - 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	long getFirst() {
+		return first;
+	}
+
+	long getLast() {
+		return last;
+	}
+
+	long getLength() {
+		return last - first + 1;
+	}
+
+	String toContentRange(long size) {
+		return "bytes " + first + "-" + last + "/" + size;
+	}
+}
@@ -0,0 +1,207 @@
+package com.videoservice.video.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.videoservice.video.model.VideoUploadStatus;
+
+/**
+ * A video upload that arrives in chunks, possibly out of order and over
+ * several connections, see VideoFileManager.startUpload().
+ * 
+ * The data goes into a part file of the final size. Each chunk is read
+ * into memory and checked against the MD5 the client sent before any of
+ * it is written, so a bad or oversized chunk never overwrites ranges that
+ * were already accepted. Good chunks are then written straight to their
+ * offset with positional writes, which FileChannel allows from many
+ * threads at once.
+ */
+public class ChunkedUpload {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String id;
+
+	private final long videoId;
+
+	private final String owner;
+
+	private final long size;
+
+	private final int maxChunkSize;
+
+	private final Path file;
+
+	private final FileChannel channel;
+
+	// Guarded by this
+	private final RangeSet<Long> received = TreeRangeSet.create();
+
+	// Guarded by this
+	private int writing;
+
+	// Guarded by this
+	private long lastAccess = System.currentTimeMillis();
+
+	ChunkedUpload(String id, long videoId, String owner, long size, int maxChunkSize, Path file) throws IOException {
+		this.id = id;
+		this.videoId = videoId;
+		this.owner = owner;
+		this.size = size;
+		this.maxChunkSize = maxChunkSize;
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		if (size > 0) {
+			// Sets the final length up front, so chunks can land anywhere
+			channel.write(ByteBuffer.allocate(1), size - 1);
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getVideoId() {
+		return videoId;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Writes the chunk read from in at offset. Returns false, and writes
+	 * nothing, if the data does not match md5.
+	 * 
+	 * @param length
+	 *            the declared length of the chunk, or -1 if unknown
+	 * @throws IllegalArgumentException
+	 *             if the chunk does not fit in the upload or is larger than
+	 *             the chunk size limit
+	 */
+	public boolean write(long offset, long length, InputStream in, byte[] md5) throws IOException {
+		if (offset < 0 || offset > size) {
+			throw new IllegalArgumentException("Offset " + offset + " is outside the upload of " + size + " bytes");
+		}
+		long limit = Math.min(maxChunkSize, size - offset);
+		if (length > limit) {
+			throw new IllegalArgumentException(tooLong(offset, length));
+		}
+		byte[] chunk = read(offset, length, limit, in);
+		if (!Arrays.equals(Hashing.md5().hashBytes(chunk).asBytes(), md5)) {
+			return false;
+		}
+		if (chunk.length == 0) {
+			return true;
+		}
+		Range<Long> range = Range.closedOpen(offset, offset + chunk.length);
+		synchronized (this) {
+			writing++;
+		}
+		boolean written = false;
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(chunk);
+			long position = offset;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			written = true;
+		} finally {
+			synchronized (this) {
+				if (written) {
+					received.add(range);
+				} else {
+					// Whatever was partly written may have clobbered good data
+					received.remove(range);
+				}
+				writing--;
+				lastAccess = System.currentTimeMillis();
+			}
+		}
+		return true;
+	}
+
+	// Reads the whole chunk, failing as soon as it grows past limit
+	private byte[] read(long offset, long length, long limit, InputStream in) throws IOException {
+		if (length >= 0) {
+			byte[] chunk = new byte[(int) length];
+			try {
+				ByteStreams.readFully(in, chunk);
+			} catch (EOFException e) {
+				throw new IllegalArgumentException("Chunk at " + offset + " is shorter than its declared " + length + " bytes");
+			}
+			if (in.read() >= 0) {
+				throw new IllegalArgumentException("Chunk at " + offset + " is longer than its declared " + length + " bytes");
+			}
+			return chunk;
+		}
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			if (chunk.size() + read > limit) {
+				throw new IllegalArgumentException(tooLong(offset, chunk.size() + read));
+			}
+			chunk.write(buffer, 0, read);
+		}
+		return chunk.toByteArray();
+	}
+
+	private String tooLong(long offset, long length) {
+		if (offset + length > size) {
+			return "Chunk at " + offset + " runs past the end of the upload";
+		}
+		return "Chunk at " + offset + " is larger than " + maxChunkSize + " bytes";
+	}
+
+	/**
+	 * Whether no chunk has been written since the given time and none is
+	 * being written right now.
+	 */
+	synchronized boolean isIdleSince(long time) {
+		return writing == 0 && lastAccess < time;
+	}
+
+	public synchronized boolean isComplete() {
+		return size == 0 || received.encloses(Range.closedOpen(0L, size));
+	}
+
+	public synchronized VideoUploadStatus getStatus() {
+		List<long[]> ranges = new ArrayList<long[]>();
+		for (Range<Long> range : received.asRanges()) {
+			ranges.add(new long[] { range.lowerEndpoint(), range.upperEndpoint() });
+		}
+		return new VideoUploadStatus(id, size, ranges, isComplete());
+	}
+
+	/**
+	 * Flushes the data to disk and moves it to target in one step, so
+	 * readers never see a half-written video.
+	 */
+	void finish(Path target) throws IOException {
+		channel.force(false);
+		channel.close();
+		Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	void abort() throws IOException {
+		channel.close();
+		Files.deleteIfExists(file);
+	}
+}
@@ -1,40 +1,130 @@
 package com.videoservice.video.controller;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.Principal;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.videoservice.video.client.ImageSvcApi;
+import com.videoservice.video.filter.DecodedImage;
+import com.videoservice.video.filter.FilterRejectedException;
+import com.videoservice.video.filter.ImageTooLargeException;
+import com.videoservice.video.filter.FilterResultCache;
+import com.videoservice.video.filter.FilterWorkerPool;
+import com.videoservice.video.filter.ImageEffect;
+import com.videoservice.video.filter.ImageFilterEngine;
+import com.videoservice.video.metrics.ImageMetrics;
+import com.videoservice.video.metrics.ImageMetrics.Phase;
 import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoQuery;
+import com.videoservice.video.model.VideoUploadStatus;
+import com.videoservice.video.repository.EncodedCatalog;
+import com.videoservice.video.repository.EncodedPage;
+import com.videoservice.video.repository.VideoRepository;
 import retrofit.http.Multipart;
 import retrofit.http.Streaming;
-import magick.*;
 
 @Controller
 public class ImageController {
 
     public static int ERR_VIDEO_NOT_EXISTED = -2521;
-    //video metadata manager
-    private static VideoRepository videoRepository;
 
-    //video data manager
+    private static final String BATCH_CONTENT_TYPE = "application/zip";
+
+    private static final String DEFAULT_VIDEO_CONTENT_TYPE = "video/mpeg";
+
+    //not in the Servlet 3.0 HttpServletResponse constants
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final MediaType JSON_UTF8 = MediaType.parseMediaType("application/json;charset=UTF-8");
+
+    //video metadata manager, see Application.videoRepository()
+    @Autowired
+    private VideoRepository videoRepository;
+
+    //pre-encoded JSON pages of the video list
+    @Autowired
+    private EncodedCatalog encodedCatalog;
+
+    //send the gzipped page to clients that accept it
+    @Value("${video.snapshot.gzip:true}")
+    private boolean gzipSnapshots;
+
+    //smaller pages are sent as they are, like the connector does
+    @Value("${http.compression.minSize:1024}")
+    private int compressionMinSize;
+
+    //video data manager, see Application.videoFileManager()
+    @Autowired
     private VideoFileManager videoDataRepository;
+
+    //applies the image effects, see Application.imageFilterEngine()
+    @Autowired
+    private ImageFilterEngine filterEngine;
+
+    //filtered results of recent uploads
+    @Autowired
+    private FilterResultCache resultCache;
+
+    //threads that run the filters, see Application.filterWorkerPool()
+    @Autowired
+    private FilterWorkerPool workerPool;
+
+    //per-phase timings, published on /metrics
+    @Autowired
+    private ImageMetrics metrics;
+
+    //how long an async upload may wait for its filter before a 503
+    @Value("${image.async.timeoutMillis:30000}")
+    private long asyncTimeout;
+
+    //when false, uploads are read fully into memory before filtering
+    @Value("${image.filter.streaming:true}")
+    private boolean streaming;
+
+    //page size of GET /video when the client does not ask for one
+    @Value("${video.page.defaultSize:100}")
+    private int defaultPageSize;
+
+    //largest page a client may ask for
+    @Value("${video.page.maxSize:1000}")
+    private int maxPageSize;
     
-    private ImageController() throws IOException {
-        videoRepository = new VideoRepository();
-        videoDataRepository = new VideoFileManager();
+    private ImageController() {
     }
 
     /**
@@ -45,10 +135,263 @@ public class ImageController {
      * by the client into a Collection.
      * The return content-type should be application/json, which will be the
      * default if you use @ResponseBody
+     * 
+     * The list is one page, ordered by id, of the videos matching the
+     * optional owner, subject, location and rating filters. When more
+     * videos follow, the X-Next-Cursor header holds the cursor to pass
+     * for the next page.
+     * 
+     * The ETag is the repository version, so a client polling with
+     * If-None-Match gets a 304 without the query or the serialization
+     * running until a video is saved or deleted. Otherwise the page comes
+     * from the EncodedCatalog, already serialized (and gzipped when the
+     * client accepts it), and the bytes are written as they are.
+     * 
+     * The gzipped and the plain body are different bytes, so clients that
+     * accept gzip get the ETag "<version>-gz" instead. Which body a page
+     * gets only depends on its size, which is fixed for a version, so the
+     * tag can be chosen before the query runs.
      */
     @RequestMapping(value = ImageSvcApi.VIDEO_SVC_PATH,  method = RequestMethod.GET)
-    public @ResponseBody Collection<Video> getVideoList(){
-        return Lists.newArrayList(videoRepository.findAll());
+    public ResponseEntity<byte[]> getVideoList(
+            @RequestParam(value = ImageSvcApi.CURSOR_PARAMETER, defaultValue = "0") long cursor,
+            @RequestParam(value = ImageSvcApi.LIMIT_PARAMETER, required = false) Integer limit,
+            @RequestParam(value = ImageSvcApi.OWNER_PARAMETER, required = false) String owner,
+            @RequestParam(value = ImageSvcApi.SUBJECT_PARAMETER, required = false) String subject,
+            @RequestParam(value = ImageSvcApi.LOCATION_PARAMETER, required = false) String location,
+            @RequestParam(value = ImageSvcApi.MIN_RATING_PARAMETER, required = false) Integer minRating,
+            @RequestParam(value = ImageSvcApi.MAX_RATING_PARAMETER, required = false) Integer maxRating,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        //read before the query, so a concurrent change can only make the
+        //ETag older than the page, never newer
+        long version = videoRepository.getVersion();
+        boolean gzip = gzipSnapshots && acceptsGzip(request);
+        String etag = "\"" + Long.toHexString(version) + (gzip ? "-gz" : "") + "\"";
+        if (gzipSnapshots) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (notModified(request, response, etag, videoRepository.getLastModified())) {
+            return new ResponseEntity<byte[]>(HttpStatus.NOT_MODIFIED);
+        }
+        int pageSize = Math.min(limit != null ? limit : defaultPageSize, maxPageSize);
+        EncodedPage page = encodedCatalog.find(version, new VideoQuery(cursor, pageSize)
+                .setOwner(owner)
+                .setSubject(subject)
+                .setLocation(location)
+                .setMinRating(minRating)
+                .setMaxRating(maxRating));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(JSON_UTF8);
+        if (page.getNextCursor() != null) {
+            headers.set(ImageSvcApi.NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+        }
+        byte[] body = page.getJson();
+        if (gzip && body.length >= compressionMinSize) {
+            headers.set("Content-Encoding", "gzip");
+            body = page.getGzipped();
+        }
+        return new ResponseEntity<byte[]>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * GET /video/{id}/data
+     * Returns the video file. A single "Range: bytes=first-last" header is
+     * answered with 206 and only that part of the file, so players can
+     * seek and interrupted downloads can resume. With If-Range, the range
+     * is only honoured while the file still has that ETag or date.
+     * 
+     * Tomcat's sendfile is not used: it is only offered on plain HTTP or
+     * APR connectors, and this service only has the HTTPS NIO connector,
+     * where every byte has to go through the TLS engine anyway.
+     */
+    @RequestMapping(value = ImageSvcApi.VIDEO_DATA_PATH, method = RequestMethod.GET)
+    public void getVideoData(@PathVariable(ImageSvcApi.ID_PARAMETER) long id,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Video video = videoRepository.findOne(id);
+        BasicFileAttributes data = video != null ? videoDataRepository.getVideoDataAttributes(video) : null;
+        if (data == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long size = data.size();
+        long lastModified = data.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setContentType(video.getContentType() != null ? video.getContentType() : DEFAULT_VIDEO_CONTENT_TYPE);
+
+        ByteRange range = null;
+        try {
+            if (ifRangeMatches(request, etag, lastModified)) {
+                range = ByteRange.parse(request.getHeader("Range"), size);
+            }
+        } catch (IllegalArgumentException e) {
+            response.setHeader("Content-Range", "bytes */" + size);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        long first = 0;
+        long length = size;
+        if (range != null) {
+            first = range.getFirst();
+            length = range.getLength();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", range.toContentRange(size));
+        }
+        //setContentLength() only takes an int
+        response.setHeader("Content-Length", Long.toString(length));
+
+        videoDataRepository.copyVideoData(video, first, length, response.getOutputStream());
+    }
+
+    /**
+     * POST /video/{id}/data/upload?size=N
+     * Starts a chunked upload of N bytes of video data. The chunks are
+     * sent with PUT /video/{id}/data/upload/{uploadId}?offset=O, in any
+     * order and over any number of connections, and the upload is
+     * finished with POST .../complete. Chunks are not multipart requests,
+     * so MAX_REQUEST_SIZE does not limit the size of the video; the
+     * upload size limit of VideoFileManager does (413), as does the number
+     * of uploads each user may have open (429). Only the user who started
+     * an upload can send, read, complete or cancel it; anyone else gets a
+     * 404, as for an unknown upload id.
+     */
+    @RequestMapping(value = ImageSvcApi.VIDEO_UPLOAD_PATH, method = RequestMethod.POST)
+    public @ResponseBody VideoUploadStatus startVideoUpload(@PathVariable(ImageSvcApi.ID_PARAMETER) long id,
+            @RequestParam(ImageSvcApi.SIZE_PARAMETER) long size, Principal principal,
+            HttpServletResponse response) throws IOException {
+        Video video = videoRepository.findOne(id);
+        if (video == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        if (size < 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Negative upload size");
+            return null;
+        }
+        String owner = owner(principal);
+        try {
+            return videoDataRepository.startUpload(video, size, owner).getStatus();
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+            return null;
+        } catch (UploadLimitException e) {
+            response.sendError(SC_TOO_MANY_REQUESTS, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * PUT /video/{id}/data/upload/{uploadId}?offset=O
+     * Writes the request body at offset O. The Content-MD5 header (the
+     * Base64 MD5 digest of the body) is required; a chunk that does not
+     * match it gets a 400, is not written and stays missing.
+     */
+    @RequestMapping(value = ImageSvcApi.VIDEO_UPLOAD_ID_PATH, method = RequestMethod.PUT)
+    public @ResponseBody VideoUploadStatus putVideoChunk(@PathVariable(ImageSvcApi.ID_PARAMETER) long id,
+            @PathVariable(ImageSvcApi.UPLOAD_ID_PARAMETER) String uploadId,
+            @RequestParam(ImageSvcApi.OFFSET_PARAMETER) long offset,
+            @RequestHeader(value = ImageSvcApi.CONTENT_MD5_HEADER, required = false) String md5,
+            Principal principal, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ChunkedUpload upload = findUpload(id, uploadId, principal);
+        if (upload == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        byte[] digest;
+        try {
+            digest = md5 != null ? BaseEncoding.base64().decode(md5.trim()) : null;
+        } catch (IllegalArgumentException e) {
+            digest = null;
+        }
+        if (digest == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A Base64 Content-MD5 header is required");
+            return null;
+        }
+        InputStream in = request.getInputStream();
+        try {
+            if (!upload.write(offset, request.getContentLength(), in, digest)) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Content-MD5 does not match the chunk");
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        } finally {
+            in.close();
+        }
+        return upload.getStatus();
+    }
+
+    /**
+     * GET /video/{id}/data/upload/{uploadId}
+     * The byte ranges received so far, so a client can resume.
+     */
+    @RequestMapping(value = ImageSvcApi.VIDEO_UPLOAD_ID_PATH, method = RequestMethod.GET)
+    public @ResponseBody VideoUploadStatus getVideoUpload(@PathVariable(ImageSvcApi.ID_PARAMETER) long id,
+            @PathVariable(ImageSvcApi.UPLOAD_ID_PARAMETER) String uploadId, Principal principal,
+            HttpServletResponse response) throws IOException {
+        ChunkedUpload upload = findUpload(id, uploadId, principal);
+        if (upload == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        return upload.getStatus();
+    }
+
+    /**
+     * POST /video/{id}/data/upload/{uploadId}/complete
+     * Replaces the video data with the upload, or answers 409 while some
+     * ranges are still missing.
+     */
+    @RequestMapping(value = ImageSvcApi.VIDEO_UPLOAD_COMPLETE_PATH, method = RequestMethod.POST)
+    public @ResponseBody VideoUploadStatus completeVideoUpload(@PathVariable(ImageSvcApi.ID_PARAMETER) long id,
+            @PathVariable(ImageSvcApi.UPLOAD_ID_PARAMETER) String uploadId, Principal principal,
+            HttpServletResponse response) throws IOException {
+        Video video = videoRepository.findOne(id);
+        ChunkedUpload upload = video != null ? videoDataRepository.getUpload(video, uploadId) : null;
+        if (upload == null || !upload.getOwner().equals(owner(principal))) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        try {
+            videoDataRepository.completeUpload(video, upload);
+        } catch (IllegalStateException e) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+            return null;
+        }
+        return upload.getStatus();
+    }
+
+    /**
+     * DELETE /video/{id}/data/upload/{uploadId}
+     * Cancels the upload and deletes what was received.
+     */
+    @RequestMapping(value = ImageSvcApi.VIDEO_UPLOAD_ID_PATH, method = RequestMethod.DELETE)
+    public void abortVideoUpload(@PathVariable(ImageSvcApi.ID_PARAMETER) long id,
+            @PathVariable(ImageSvcApi.UPLOAD_ID_PARAMETER) String uploadId, Principal principal,
+            HttpServletResponse response) throws IOException {
+        ChunkedUpload upload = findUpload(id, uploadId, principal);
+        if (upload == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        videoDataRepository.abortUpload(upload);
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * The upload, or null if it doesn't exist or someone else started it.
+     */
+    private ChunkedUpload findUpload(long id, String uploadId, Principal principal) {
+        Video video = videoRepository.findOne(id);
+        ChunkedUpload upload = video != null ? videoDataRepository.getUpload(video, uploadId) : null;
+        return upload != null && upload.getOwner().equals(owner(principal)) ? upload : null;
+    }
+
+    private static String owner(Principal principal) {
+        return principal != null ? principal.getName() : "";
     }
 
    
@@ -58,85 +401,406 @@ public class ImageController {
     @RequestMapping(value = ImageSvcApi.IMAGE_DATA_PATH, method = RequestMethod.POST)
     public @ResponseBody void setImageData(
             @PathVariable(ImageSvcApi.ID_EFFECT) long id,
-            @RequestParam(value = ImageSvcApi.DATA_PARAMETER) MultipartFile imageData, Principal principal,
-            HttpServletResponse response ) throws IOException, MagickException {
-    	//apply effects
-        byte[] imageBlob = getImageWithFilter(id, imageData.getBytes());
+            @RequestParam(value = ImageSvcApi.DATA_PARAMETER) final MultipartFile imageData, Principal principal,
+            @RequestParam(value = ImageSvcApi.MAX_DIMENSION_PARAMETER, defaultValue = "0") final int maxDimension,
+            HttpServletRequest request, HttpServletResponse response ) throws IOException {
+        final ImageEffect effect = ImageEffect.fromId(id);
         //put content type
     	response.setContentType(imageData.getContentType());
-    	//put bytes in response
-    	response.getOutputStream().write(imageBlob);
+    	//same effect on the same bytes: answer from the cache without decoding
+    	FilterResultCache.Key key = cacheKey(effect, maxDimension, imageData);
+    	//the client already has this result, send neither a filter nor a body
+    	if (effect.isDeterministic() && notModified(request, response, key.toETag(), 0)) {
+    	    return;
+    	}
+    	final CountingOutputStream out = new CountingOutputStream(response.getOutputStream());
+    	byte[] cached = resultCache.get(key);
+    	if (cached != null) {
+    	    response.setContentLength(cached.length);
+    	    write(effect, cached, out);
+    	    return;
+    	}
+    	final OutputStream capture = resultCache.capture(key, out);
+    	//run the filter on the bounded worker pool, fails fast when it is busy
+    	workerPool.execute(effect, new Callable<Void>() {
+    	    @Override
+    	    public Void call() throws IOException {
+    	        try {
+    	            filter(effect, imageData, maxDimension, capture);
+    	            //stores the result in the cache
+    	            capture.close();
+    	        } finally {
+    	            metrics.addBytesOut(out.getCount());
+    	        }
+    	        return null;
+    	    }
+    	});
     }
 
- 
-    
     /**
-     * Apply filter with id
-     * @param id_filter
-     * @param imageBlob
-     * @return
-     * @throws MagickException
-     */
-    private byte[] getImageWithFilter(long id_filter, byte[] imageBlob) throws MagickException{
-    	int anInt = new BigDecimal(id_filter).intValueExact(); // throws ArithmeticException
-    	ImageInfo info=new ImageInfo();
-    	info.setMagick("jpeg");
-        MagickImage image = new MagickImage(info, imageBlob); //load image
-    	
-        switch(anInt){
-    	case 0:
-    		//contrast
-    		//MultiplicativeGaussianNoise
-    		image = image.addNoiseImage(3);
-            System.out.println("%%%%%%%%%%%%%%% Noise");
-    		break;
-    	case 1:
-    		//blur
-    		image = image.blurImage(0, 30);
-            System.out.println("%%%%%%%%%%%%%%% Blur");
-
-    		break;
-    	case 2:
-    		//charcoal image
-    		image = image.charcoalImage(10, 20);
-            System.out.println("%%%%%%%%%%%%%%% Characoal");
-
-    		break;
-    	case 3:
-    		//grayscale
-            image.setGrayscale();
-            System.out.println("%%%%%%%%%%%%%%% Grayscale");
-    		break;
-    	case 4:
-    		//MultiplicativeGaussianNoise
-    		image =image.edgeImage(0);
-            System.out.println("%%%%%%%%%%%%%%% Edge");
-            break;
-    	case 5:
-    		image.solarizeImage(100);
-            System.out.println("%%%%%%%%%%%%%%% Solarize");
-    		break;
-    	default:
-    		break;
-    	}
-    	return image.imageToBlob(info);
+     * POST /image/{effect}/data/async
+     * Same as setImageData, but the container thread is released as soon
+     * as the filter job is queued. The filtered JPEG is collected by the
+     * worker and the response is completed from there.
+     */
+    @RequestMapping(value = ImageSvcApi.IMAGE_ASYNC_DATA_PATH, method = RequestMethod.POST)
+    public @ResponseBody DeferredResult<ResponseEntity<byte[]>> setImageDataAsync(
+            @PathVariable(ImageSvcApi.ID_EFFECT) long id,
+            @RequestParam(value = ImageSvcApi.DATA_PARAMETER) final MultipartFile imageData,
+            @RequestParam(value = ImageSvcApi.MAX_DIMENSION_PARAMETER, defaultValue = "0") final int maxDimension,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch)
+            throws IOException {
+        final ImageEffect effect = ImageEffect.fromId(id);
+        final HttpHeaders headers = new HttpHeaders();
+        if (imageData.getContentType() != null) {
+            headers.setContentType(MediaType.parseMediaType(imageData.getContentType()));
+        }
+        final DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<ResponseEntity<byte[]>>(
+                asyncTimeout, new ResponseEntity<byte[]>(HttpStatus.SERVICE_UNAVAILABLE));
+
+        final FilterResultCache.Key key = cacheKey(effect, maxDimension, imageData);
+        if (effect.isDeterministic()) {
+            headers.setETag(key.toETag());
+            //a POST, so a matching If-None-Match fails the request (RFC 7232 3.2)
+            if (etagMatches(ifNoneMatch, key.toETag())) {
+                result.setResult(new ResponseEntity<byte[]>(headers, HttpStatus.PRECONDITION_FAILED));
+                return result;
+            }
+        }
+        byte[] cached = resultCache.get(key);
+        if (cached != null) {
+            metrics.addBytesOut(cached.length);
+            result.setResult(new ResponseEntity<byte[]>(cached, headers, HttpStatus.OK));
+            return result;
+        }
+
+        ListenableFuture<byte[]> filtered = workerPool.submit(effect, new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                filter(effect, imageData, maxDimension, out);
+                byte[] imageBlob = out.toByteArray();
+                resultCache.put(key, imageBlob);
+                return imageBlob;
+            }
+        });
+        Futures.addCallback(filtered, new FutureCallback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] imageBlob) {
+                metrics.addBytesOut(imageBlob.length);
+                result.setResult(new ResponseEntity<byte[]>(imageBlob, headers, HttpStatus.OK));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.setErrorResult(t);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * POST /image/batch/data?effects=0,1,3
+     * Applies several effects to one upload. The image is decoded once and
+     * the effects run in parallel on the worker pool, each reading the
+     * same decoded image. The results are returned as a zip archive with
+     * one "<effect>.jpg" entry per requested effect, in request order.
+     * Like setImageDataAsync, the container thread is released while the
+     * effects run and the archive is written once the last one finishes.
+     */
+    @RequestMapping(value = ImageSvcApi.IMAGE_BATCH_DATA_PATH, method = RequestMethod.POST)
+    public @ResponseBody DeferredResult<ResponseEntity<byte[]>> setImageDataBatch(
+            @RequestParam(value = ImageSvcApi.EFFECTS_PARAMETER) long[] ids,
+            @RequestParam(value = ImageSvcApi.DATA_PARAMETER) MultipartFile imageData,
+            @RequestParam(value = ImageSvcApi.MAX_DIMENSION_PARAMETER, defaultValue = "0") int maxDimension,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch)
+            throws IOException {
+        Set<ImageEffect> effects = new LinkedHashSet<ImageEffect>();
+        for (long id : ids) {
+            effects.add(ImageEffect.fromId(id));
+        }
+
+        //effects already in the cache need neither a decode nor a worker
+        FilterResultCache.Key key = cacheKey(ImageEffect.NONE, maxDimension, imageData);
+        StringBuilder etag = new StringBuilder("\"batch");
+        boolean deterministic = true;
+        for (ImageEffect effect : effects) {
+            etag.append('-').append(effect.getId());
+            deterministic &= effect.isDeterministic();
+        }
+        etag.append('-').append(key.getHash()).append('"');
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(BATCH_CONTENT_TYPE));
+        final DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<ResponseEntity<byte[]>>(
+                asyncTimeout, new ResponseEntity<byte[]>(HttpStatus.SERVICE_UNAVAILABLE));
+        if (deterministic) {
+            headers.setETag(etag.toString());
+            //a POST, so a matching If-None-Match fails the request (RFC 7232 3.2)
+            if (etagMatches(ifNoneMatch, etag.toString())) {
+                result.setResult(new ResponseEntity<byte[]>(headers, HttpStatus.PRECONDITION_FAILED));
+                return result;
+            }
+        }
+        final Map<ImageEffect, ListenableFuture<byte[]>> results = new LinkedHashMap<ImageEffect, ListenableFuture<byte[]>>();
+        List<ImageEffect> missing = new ArrayList<ImageEffect>();
+        for (ImageEffect effect : effects) {
+            byte[] cached = resultCache.get(key.forEffect(effect));
+            results.put(effect, cached != null ? Futures.immediateFuture(cached) : null);
+            if (cached == null) {
+                missing.add(effect);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            final DecodedImage decoded;
+            InputStream in = imageData.getInputStream();
+            try {
+                decoded = filterEngine.decode(in, maxDimension);
+            } finally {
+                in.close();
+            }
+            List<ListenableFuture<byte[]>> jobs = new ArrayList<ListenableFuture<byte[]>>();
+            try {
+                for (final ImageEffect effect : missing) {
+                    final FilterResultCache.Key effectKey = key.forEffect(effect);
+                    ListenableFuture<byte[]> job = workerPool.submit(effect, new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            metrics.started(effect);
+                            try {
+                                filterEngine.apply(effect, decoded, out);
+                            } finally {
+                                metrics.finished(effect);
+                            }
+                            byte[] imageBlob = out.toByteArray();
+                            resultCache.put(effectKey, imageBlob);
+                            return imageBlob;
+                        }
+                    });
+                    jobs.add(job);
+                    results.put(effect, job);
+                }
+            } finally {
+                //the decoded image is shared, so it is released only once
+                //every job that made it into the pool has finished
+                Futures.successfulAsList(jobs).addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        decoded.release();
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+        }
+
+        Futures.successfulAsList(results.values()).addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] archive = zip(results);
+                    metrics.addBytesOut(archive.length);
+                    result.setResult(new ResponseEntity<byte[]>(archive, headers, HttpStatus.OK));
+                } catch (Exception e) {
+                    result.setErrorResult(e);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * Store the finished results in a zip archive, in their map order.
+     * Rethrows the failure of the first job that didn't succeed.
+     */
+    private byte[] zip(Map<ImageEffect, ListenableFuture<byte[]>> results) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (Map.Entry<ImageEffect, ListenableFuture<byte[]>> result : results.entrySet()) {
+            //already done, so this doesn't block
+            byte[] imageBlob = FilterWorkerPool.await(result.getValue());
+            long start = System.nanoTime();
+            //JPEG data does not deflate, so the entries are stored as-is
+            ZipEntry entry = new ZipEntry(result.getKey().getId() + ".jpg");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(imageBlob.length);
+            CRC32 crc = new CRC32();
+            crc.update(imageBlob);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(imageBlob);
+            zip.closeEntry();
+            metrics.record(ImageEffect.NONE, Phase.WRITE, start);
+        }
+        zip.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Too many uploads for this effect are already queued. Answer right
+     * away and tell the client when to try again.
+     */
+    @ExceptionHandler(FilterRejectedException.class)
+    public void filterRejected(FilterRejectedException e, HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", Integer.toString(e.getRetryAfterSeconds()));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+    }
+
+    /**
+     * The upload declares more pixels than the Java filters will decode.
+     */
+    @ExceptionHandler(ImageTooLargeException.class)
+    public void imageTooLarge(ImageTooLargeException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+    }
+
+    /**
+     * Apply the effect to the upload, scaled down first when maxDimension
+     * is positive, and write the JPEG result to out.
+     */
+    private void filter(ImageEffect effect, MultipartFile imageData, int maxDimension, OutputStream out)
+            throws IOException {
+        //decode from the uploaded part, or from a copy in memory when
+        //streaming is turned off
+        InputStream in = streaming ? imageData.getInputStream() : new ByteArrayInputStream(imageData.getBytes());
+        DecodedImage image;
+        try {
+            image = filterEngine.decode(in, maxDimension);
+        } finally {
+            in.close();
+        }
+        //apply effects, the result goes straight into out
+        metrics.started(effect);
+        try {
+            filterEngine.apply(effect, image, out);
+        } finally {
+            metrics.finished(effect);
+            image.release();
+        }
+    }
+
+    private void write(ImageEffect effect, byte[] imageBlob, CountingOutputStream out) throws IOException {
+        long start = System.nanoTime();
+        out.write(imageBlob);
+        metrics.record(effect, Phase.WRITE, start);
+        metrics.addBytesOut(out.getCount());
     }
-    
-    public static class VideoRepository {
 
-        // We make sure that our data structure is thread-safe to avoid
-        // race conditions
-        private Map<Long, Video> video_ = new ConcurrentHashMap<Long, Video>();
+    /**
+     * Sets the ETag, and Last-Modified when it is positive, on the
+     * response. Returns true if the client's copy is still current, in
+     * which case nothing else should be sent. That is a 304 for GET and
+     * HEAD; for other methods, such as the POSTs of the image filters,
+     * RFC 7232 3.2 requires a 412 instead.
+     * 
+     * If-None-Match takes precedence over If-Modified-Since, as HTTP
+     * requires. If-Modified-Since only applies to GET and HEAD.
+     */
+    private static boolean notModified(HttpServletRequest request, HttpServletResponse response, String etag,
+            long lastModified) {
+        response.setHeader("ETag", etag);
+        if (lastModified > 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        boolean safe = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        boolean current;
+        if (ifNoneMatch != null) {
+            current = etagMatches(ifNoneMatch, etag);
+        } else if (!safe) {
+            current = false;
+        } else {
+            long ifModifiedSince = -1;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                //unparseable dates are ignored
+            }
+            current = lastModified > 0 && ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        if (current) {
+            response.setStatus(safe ? HttpServletResponse.SC_NOT_MODIFIED : HttpServletResponse.SC_PRECONDITION_FAILED);
+        }
+        return current;
+    }
+
+    /**
+     * True when Accept-Encoding lists gzip (or *) without "q=0".
+     */
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String accept = request.getHeader("Accept-Encoding");
+        if (accept == null) {
+            return false;
+        }
+        for (String coding : accept.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().replace(" ", "");
+                if (param.startsWith("q=") && param.substring(2).matches("0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
 
-       
+    /**
+     * Weak comparison against an If-None-Match list, e.g. W/"a", "b".
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-       
-        // Return all videos in the repo
-        public Iterable<Video> findAll() {
-            return video_.values();
+    /**
+     * True when the request has no If-Range header, or when it names the
+     * current ETag or modification date (to the second) of the file.
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader("If-Range") / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
+    }
 
-       
-        
+    /**
+     * Hash the uploaded part without reading it into memory. The part can
+     * be opened again afterwards to filter it. This is the first full read
+     * of every upload, so it is what the READ phase measures.
+     */
+    private FilterResultCache.Key cacheKey(ImageEffect effect, int maxDimension, MultipartFile imageData)
+            throws IOException {
+        long start = System.nanoTime();
+        InputStream in = imageData.getInputStream();
+        try {
+            return resultCache.key(effect, maxDimension, in);
+        } finally {
+            in.close();
+            metrics.record(effect, Phase.READ, start);
+            metrics.addBytesIn(imageData.getSize());
+        }
     }
 }
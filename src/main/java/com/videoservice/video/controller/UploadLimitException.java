@@ -0,0 +1,14 @@
+package com.videoservice.video.controller;
+
+/**
+ * Thrown by VideoFileManager.startUpload() when the user already has as
+ * many chunked uploads open as they are allowed. Answered with 429.
+ */
+public class UploadLimitException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	public UploadLimitException(String message) {
+		super(message);
+	}
+}
@@ -21,10 +21,33 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import com.videoservice.video.model.Video;
 
@@ -33,6 +56,12 @@ import com.videoservice.video.model.Video;
  * data on the file system in a "videos" folder. The class provides
  * methods for saving videos and retrieving their binary data.
  * 
+ * The files are spread over two levels of subfolders named after a hash
+ * of the video id (e.g. "videos/3f/a2/video42.mpg"), so no folder grows
+ * past a few thousand entries. Files from the older flat layout are moved
+ * into place by migrateFlatLayout(), which can also be run on its own
+ * with the main() method.
+ * 
  * @author jules
  *
  */
@@ -40,8 +69,33 @@ public class VideoFileManager {
 
 	private static final String DEFAULT_VIDEOS_FOLDER = "videos";
 	
+	public static final long DEFAULT_MAX_UPLOAD_SIZE = 4L * 1024 * 1024 * 1024;
+	
+	public static final int DEFAULT_MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+	
+	public static final int DEFAULT_MAX_UPLOADS_PER_USER = 4;
+	
+	public static final long DEFAULT_UPLOAD_IDLE_MILLIS = 60 * 60 * 1000L;
+	
+	// Complete video files, as opposed to the part files of uploads
+	private static final Pattern VIDEO_FILE = Pattern.compile("video(\\d+)\\.mpg");
+	
+	// The data of an upload, named after the video file and the upload id
+	private static final Pattern PART_FILE = Pattern.compile("video\\d+\\.mpg\\.[0-9a-f-]{36}\\.part");
+	
 	private Path targetDir_;
 	
+	// Chunked uploads that have been started but not completed yet
+	private final ConcurrentMap<String, ChunkedUpload> uploads_ = new ConcurrentHashMap<String, ChunkedUpload>();
+	
+	private final long maxUploadSize_;
+	
+	private final int maxChunkSize_;
+	
+	private final int maxUploadsPerUser_;
+	
+	private final long uploadIdleMillis_;
+	
 	
 	public VideoFileManager() throws IOException{
 		this(DEFAULT_VIDEOS_FOLDER);
@@ -50,6 +104,18 @@ public class VideoFileManager {
 	// The VideoFileManager.get() method should be used
 	// to obtain an instance
 	public VideoFileManager(String dir) throws IOException{
+		this(dir, DEFAULT_MAX_UPLOAD_SIZE, DEFAULT_MAX_CHUNK_SIZE, DEFAULT_MAX_UPLOADS_PER_USER, DEFAULT_UPLOAD_IDLE_MILLIS);
+	}
+	
+	public VideoFileManager(long maxUploadSize, int maxChunkSize, int maxUploadsPerUser, long uploadIdleMillis) throws IOException{
+		this(DEFAULT_VIDEOS_FOLDER, maxUploadSize, maxChunkSize, maxUploadsPerUser, uploadIdleMillis);
+	}
+	
+	public VideoFileManager(String dir, long maxUploadSize, int maxChunkSize, int maxUploadsPerUser, long uploadIdleMillis) throws IOException{
+		maxUploadSize_ = maxUploadSize;
+		maxChunkSize_ = maxChunkSize;
+		maxUploadsPerUser_ = maxUploadsPerUser;
+		uploadIdleMillis_ = uploadIdleMillis;
 		targetDir_ = Paths.get(dir);
 		
 		if(!Files.exists(targetDir_)){
@@ -60,7 +126,85 @@ public class VideoFileManager {
 	// Private helper method for resolving video file paths
 	private Path getVideoPath(Video v){
 		assert(v != null);
-		return targetDir_.resolve("video"+v.getId()+".mpg");
+		return getVideoPath(v.getId());
+	}
+	
+	private Path getVideoPath(long id){
+		String hash = Hashing.murmur3_32().hashLong(id).toString();
+		return targetDir_.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve("video"+id+".mpg");
+	}
+	
+	/**
+	 * This method moves the video files stored directly in the videos
+	 * folder by older versions into their subfolders, and returns how
+	 * many were moved. Files that already exist in the new layout are
+	 * left where they are.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public int migrateFlatLayout() throws IOException {
+		int moved = 0;
+		DirectoryStream<Path> files = Files.newDirectoryStream(targetDir_, "video*.mpg");
+		try {
+			for (Path file : files) {
+				Matcher name = VIDEO_FILE.matcher(file.getFileName().toString());
+				if (!name.matches() || !Files.isRegularFile(file)) {
+					continue;
+				}
+				Path target = getVideoPath(Long.parseLong(name.group(1)));
+				if (Files.exists(target)) {
+					continue;
+				}
+				Files.createDirectories(target.getParent());
+				Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+				moved++;
+			}
+		} finally {
+			files.close();
+		}
+		return moved;
+	}
+	
+	/**
+	 * This method deletes the part files of uploads that this manager
+	 * doesn't know, and returns how many were deleted. Uploads only live
+	 * in memory, so after a restart nobody can finish them; run on
+	 * startup, this frees the space of every upload that was interrupted
+	 * by the restart or whose part file could not be deleted before.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public int deleteOrphanedParts() throws IOException {
+		final int[] deleted = new int[1];
+		// The two levels of hashed subfolders, and the flat layout
+		Files.walkFileTree(targetDir_, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String name = file.getFileName().toString();
+				if (attrs.isRegularFile() && PART_FILE.matcher(name).matches() && !isOpenUpload(name)) {
+					Files.deleteIfExists(file);
+					deleted[0]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return deleted[0];
+	}
+	
+	private boolean isOpenUpload(String partFileName) {
+		String[] parts = partFileName.split("\\.");
+		return uploads_.containsKey(parts[2]);
+	}
+	
+	/**
+	 * Moves the video files in the given folder (default "videos") into
+	 * the sharded layout, for use while the server is stopped.
+	 */
+	public static void main(String[] args) throws IOException {
+		VideoFileManager manager = new VideoFileManager(args.length > 0 ? args[0] : DEFAULT_VIDEOS_FOLDER);
+		System.out.println("Moved " + manager.migrateFlatLayout() + " video files into " + manager.targetDir_);
 	}
 	
 	/**
@@ -87,10 +231,65 @@ public class VideoFileManager {
 	 */
 	public void copyVideoData(Video v, OutputStream out) throws IOException {
 		Path source = getVideoPath(v);
-		if(!Files.exists(source)){
+		// Copying straight away saves a separate Files.exists() call
+		try {
+			Files.copy(source, out);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
+		}
+	}
+	
+	/**
+	 * This method returns the size and modification time of the binary
+	 * data for the given video, or null if it has none.
+	 * 
+	 * @param v
+	 * @return
+	 * @throws IOException
+	 */
+	public BasicFileAttributes getVideoDataAttributes(Video v) throws IOException {
+		try {
+			return Files.readAttributes(getVideoPath(v), BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * This method copies count bytes of the binary data for the given
+	 * video, starting at position, to the provided output stream.
+	 * 
+	 * The servlet output stream is not a channel, so FileChannel.transferTo
+	 * reads the file through a direct buffer and Channels.newChannel copies
+	 * each block once more into a small heap array for out.write(). This
+	 * still avoids holding the video in memory, but it is not zero-copy.
+	 * 
+	 * @param v
+	 * @param position
+	 * @param count
+	 * @param out
+	 * @throws IOException
+	 */
+	public void copyVideoData(Video v, long position, long count, OutputStream out) throws IOException {
+		FileChannel source;
+		try {
+			source = FileChannel.open(getVideoPath(v), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
 			throw new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId());
 		}
-		Files.copy(source, out);
+		try {
+			WritableByteChannel target = Channels.newChannel(out);
+			long end = Math.min(position + count, source.size());
+			while (position < end) {
+				long sent = source.transferTo(position, end - position, target);
+				if (sent <= 0) {
+					break;
+				}
+				position += sent;
+			}
+		} finally {
+			source.close();
+		}
 	}
 	
 	/**
@@ -106,7 +305,244 @@ public class VideoFileManager {
 		assert(videoData != null);
 		
 		Path target = getVideoPath(v);
-		Files.copy(videoData, target, StandardCopyOption.REPLACE_EXISTING);
+		try {
+			Files.copy(videoData, target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (NoSuchFileException e) {
+			// First video in this subfolder
+			Files.createDirectories(target.getParent());
+			Files.copy(videoData, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * This method reads the binary data of the given video, starting at
+	 * position, into dst without blocking the caller. The future holds
+	 * the number of bytes read, which is less than dst.remaining() only at
+	 * the end of the file (-1 if position is past it), or fails with a
+	 * FileNotFoundException if the video has no data.
+	 * 
+	 * @param v
+	 * @param position
+	 * @param dst
+	 * @return
+	 */
+	public ListenableFuture<Integer> readVideoData(Video v, long position, ByteBuffer dst) {
+		SettableFuture<Integer> result = SettableFuture.create();
+		try {
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(getVideoPath(v), StandardOpenOption.READ);
+			new Transfer(channel, position, dst, false, result).next();
+		} catch (NoSuchFileException e) {
+			result.setException(new FileNotFoundException("Unable to find the referenced video file for videoId:"+v.getId()));
+		} catch (IOException e) {
+			result.setException(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * This method writes all of src into the binary data of the given
+	 * video at position, creating the file if needed, without blocking
+	 * the caller. The future holds the number of bytes written.
+	 * 
+	 * @param v
+	 * @param position
+	 * @param src
+	 * @return
+	 */
+	public ListenableFuture<Integer> writeVideoData(Video v, long position, ByteBuffer src) {
+		SettableFuture<Integer> result = SettableFuture.create();
+		Path target = getVideoPath(v);
+		try {
+			AsynchronousFileChannel channel;
+			try {
+				channel = AsynchronousFileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			} catch (NoSuchFileException e) {
+				Files.createDirectories(target.getParent());
+				channel = AsynchronousFileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			}
+			new Transfer(channel, position, src, true, result).next();
+		} catch (IOException e) {
+			result.setException(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Repeats an asynchronous read or write until the buffer is full or
+	 * drained (or a read reaches the end of the file), then closes the
+	 * channel and completes the future.
+	 */
+	private static class Transfer implements CompletionHandler<Integer, Void> {
+		
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer buffer;
+		private final boolean write;
+		private final SettableFuture<Integer> result;
+		private long position;
+		private int transferred;
+		
+		Transfer(AsynchronousFileChannel channel, long position, ByteBuffer buffer, boolean write,
+				SettableFuture<Integer> result) {
+			this.channel = channel;
+			this.position = position;
+			this.buffer = buffer;
+			this.write = write;
+			this.result = result;
+		}
+		
+		void next() {
+			if (write) {
+				channel.write(buffer, position, null, this);
+			} else {
+				channel.read(buffer, position, null, this);
+			}
+		}
+		
+		@Override
+		public void completed(Integer count, Void attachment) {
+			if (count < 0) {
+				finish(transferred > 0 ? transferred : -1, null);
+				return;
+			}
+			position += count;
+			transferred += count;
+			if (buffer.hasRemaining()) {
+				next();
+			} else {
+				finish(transferred, null);
+			}
+		}
+		
+		@Override
+		public void failed(Throwable error, Void attachment) {
+			finish(0, error);
+		}
+		
+		private void finish(int count, Throwable error) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			if (error != null) {
+				result.setException(error);
+			} else {
+				result.set(count);
+			}
+		}
+	}
+	
+	/**
+	 * This method starts a chunked upload of size bytes of binary data
+	 * for the given video on behalf of owner. The chunks are sent with
+	 * ChunkedUpload.write() and the data replaces the video's current
+	 * data once completeUpload() is called. Uploads that receive no
+	 * chunk for the idle timeout are aborted.
+	 * 
+	 * @param v
+	 * @param size
+	 * @param owner
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if size is negative or above the upload size limit
+	 * @throws UploadLimitException if owner already has the maximum number of uploads open
+	 */
+	public ChunkedUpload startUpload(Video v, long size, String owner) throws IOException {
+		if (size < 0) {
+			throw new IllegalArgumentException("Upload size must not be negative: " + size);
+		}
+		if (size > maxUploadSize_) {
+			throw new IllegalArgumentException("Uploads are limited to " + maxUploadSize_ + " bytes");
+		}
+		expireIdleUploads();
+		// Two concurrent starts by one user may both get in; the limit is
+		// about abandoned uploads piling up, not an exact quota
+		int open = 0;
+		for (ChunkedUpload upload : uploads_.values()) {
+			if (upload.getOwner().equals(owner)) {
+				open++;
+			}
+		}
+		if (open >= maxUploadsPerUser_) {
+			throw new UploadLimitException(owner + " already has " + open + " uploads open");
+		}
+		String id = UUID.randomUUID().toString();
+		// Next to the final file, so that completing it is a rename
+		Path target = getVideoPath(v);
+		Files.createDirectories(target.getParent());
+		ChunkedUpload upload = new ChunkedUpload(id, v.getId(), owner, size, maxChunkSize_,
+				target.resolveSibling(target.getFileName() + "." + id + ".part"));
+		uploads_.put(id, upload);
+		return upload;
+	}
+	
+	/**
+	 * This method returns the upload with the given id, or null if the
+	 * video has no such upload in progress.
+	 * 
+	 * @param v
+	 * @param uploadId
+	 * @return
+	 */
+	public ChunkedUpload getUpload(Video v, String uploadId) {
+		expireIdleUploads();
+		ChunkedUpload upload = uploads_.get(uploadId);
+		return upload != null && upload.getVideoId() == v.getId() ? upload : null;
+	}
+	
+	/**
+	 * This method aborts the uploads that have not received a chunk for
+	 * the idle timeout, closing their part files and deleting them. It
+	 * runs whenever an upload is started or looked up.
+	 * 
+	 * @return the number of uploads aborted
+	 */
+	public int expireIdleUploads() {
+		long since = System.currentTimeMillis() - uploadIdleMillis_;
+		int expired = 0;
+		for (ChunkedUpload upload : uploads_.values()) {
+			if (upload.isIdleSince(since) && uploads_.remove(upload.getId(), upload)) {
+				try {
+					upload.abort();
+				} catch (IOException e) {
+					// The part file is left behind until deleteOrphanedParts()
+				}
+				expired++;
+			}
+		}
+		return expired;
+	}
+	
+	/**
+	 * This method makes the data of a fully received upload the binary
+	 * data of its video.
+	 * 
+	 * @param v
+	 * @param upload
+	 * @throws IOException
+	 * @throws IllegalStateException if parts of the data are still missing
+	 */
+	public void completeUpload(Video v, ChunkedUpload upload) throws IOException {
+		if (!upload.isComplete()) {
+			throw new IllegalStateException("Upload " + upload.getId() + " is missing data");
+		}
+		if (uploads_.remove(upload.getId(), upload)) {
+			upload.finish(getVideoPath(v));
+		}
+	}
+	
+	/**
+	 * This method cancels an upload and deletes the data received so far.
+	 * 
+	 * @param upload
+	 * @throws IOException
+	 */
+	public void abortUpload(ChunkedUpload upload) throws IOException {
+		if (uploads_.remove(upload.getId(), upload)) {
+			upload.abort();
+		}
 	}
 	
 }
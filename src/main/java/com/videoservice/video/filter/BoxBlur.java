@@ -0,0 +1,98 @@
+package com.videoservice.video.filter;
+
+/**
+ * Box blur passes built on running sums, so a pass costs the same
+ * whatever its radius. Three successive box blurs with suitably chosen
+ * widths are a close approximation of a Gaussian blur.
+ */
+final class BoxBlur {
+
+	static final int PASSES = 3;
+
+	private BoxBlur() {
+	}
+
+	/**
+	 * Radii of PASSES box blurs whose combined variance matches a Gaussian
+	 * with the given sigma (see W. Jarosz, "Fast Image Convolutions").
+	 */
+	static int[] radii(double sigma) {
+		double ideal = Math.sqrt(12.0 * sigma * sigma / PASSES + 1);
+		int lower = (int) Math.floor(ideal);
+		if (lower % 2 == 0) {
+			lower--;
+		}
+		int upper = lower + 2;
+		double lowerCount = (12.0 * sigma * sigma - PASSES * lower * lower - 4.0 * PASSES * lower - 3.0 * PASSES)
+				/ (-4.0 * lower - 4.0);
+		long m = Math.round(lowerCount);
+
+		int[] radii = new int[PASSES];
+		for (int i = 0; i < PASSES; i++) {
+			radii[i] = ((i < m ? lower : upper) - 1) / 2;
+		}
+		return radii;
+	}
+
+	static void horizontal(int[] in, int[] out, int width, int radius, int fromRow, int toRow) {
+		int maxCol = width - 1;
+		int size = 2 * radius + 1;
+		int half = size / 2;
+		for (int y = fromRow; y < toRow; y++) {
+			int row = y * width;
+			int sr = 0, sg = 0, sb = 0;
+			for (int i = -radius; i <= radius; i++) {
+				int p = in[row + Pixels.clampIndex(i, maxCol)];
+				sr += Pixels.red(p);
+				sg += Pixels.green(p);
+				sb += Pixels.blue(p);
+			}
+			for (int x = 0; x < width; x++) {
+				out[row + x] = Pixels.pack((sr + half) / size, (sg + half) / size, (sb + half) / size);
+
+				int leaving = in[row + Pixels.clampIndex(x - radius, maxCol)];
+				int entering = in[row + Pixels.clampIndex(x + radius + 1, maxCol)];
+				sr += Pixels.red(entering) - Pixels.red(leaving);
+				sg += Pixels.green(entering) - Pixels.green(leaving);
+				sb += Pixels.blue(entering) - Pixels.blue(leaving);
+			}
+		}
+	}
+
+	/**
+	 * Blur rows [fromRow, toRow) vertically. The window is slid down the
+	 * rows with one running sum per column, so memory is still read in
+	 * row order.
+	 */
+	static void vertical(int[] in, int[] out, int width, int height, int radius, int fromRow, int toRow) {
+		int maxRow = height - 1;
+		int size = 2 * radius + 1;
+		int half = size / 2;
+		int[] colR = new int[width];
+		int[] colG = new int[width];
+		int[] colB = new int[width];
+		for (int i = -radius; i <= radius; i++) {
+			int row = Pixels.clampIndex(fromRow + i, maxRow) * width;
+			for (int x = 0; x < width; x++) {
+				int p = in[row + x];
+				colR[x] += Pixels.red(p);
+				colG[x] += Pixels.green(p);
+				colB[x] += Pixels.blue(p);
+			}
+		}
+		for (int y = fromRow; y < toRow; y++) {
+			int row = y * width;
+			int leaving = Pixels.clampIndex(y - radius, maxRow) * width;
+			int entering = Pixels.clampIndex(y + radius + 1, maxRow) * width;
+			for (int x = 0; x < width; x++) {
+				out[row + x] = Pixels.pack((colR[x] + half) / size, (colG[x] + half) / size, (colB[x] + half) / size);
+
+				int pl = in[leaving + x];
+				int pe = in[entering + x];
+				colR[x] += Pixels.red(pe) - Pixels.red(pl);
+				colG[x] += Pixels.green(pe) - Pixels.green(pl);
+				colB[x] += Pixels.blue(pe) - Pixels.blue(pl);
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.videoservice.video.filter;
+
+/**
+ * A charcoal drawing effect, like MagickImage.charcoalImage(radius, sigma).
+ * 
+ * This follows ImageMagick's recipe: convert to grayscale, detect edges,
+ * blur them, stretch the contrast and finally negate the result so that
+ * the edges come out dark on a light background.
+ */
+public class CharcoalFilter implements ImageFilter {
+
+	// Fraction of pixels clipped at each end when stretching contrast,
+	// the same points ImageMagick's NormalizeImage uses
+	private static final double BLACK_POINT = 0.0015;
+	private static final double WHITE_POINT = 0.9995;
+
+	private final GrayscaleFilter grayscale = new GrayscaleFilter();
+	private final EdgeFilter edge;
+	private final GaussianBlurFilter blur;
+
+	public CharcoalFilter(double radius, double sigma) {
+		this(radius, sigma, TiledExecutor.SEQUENTIAL);
+	}
+
+	public CharcoalFilter(double radius, double sigma, TiledExecutor executor) {
+		edge = new EdgeFilter(radius, executor);
+		blur = new GaussianBlurFilter(radius, sigma, executor);
+	}
+
+	@Override
+	public void apply(PixelBuffer src, PixelBuffer dst, RasterPool pool) {
+		PixelBuffer tmp = PixelBuffer.allocate(src.getWidth(), src.getHeight(), pool);
+		try {
+			grayscale.apply(src, dst, pool);
+			edge.apply(dst, tmp, pool);
+			blur.apply(tmp, dst, pool);
+		} finally {
+			tmp.release(pool);
+		}
+		LookupFilter.apply(normalizeAndNegate(dst), dst.getPixels(), dst.getPixels(), dst.size());
+	}
+
+	/**
+	 * Build a table that stretches the gray levels of the image between
+	 * the black and white points to the full range and then negates them.
+	 * The image is gray at this point, so only one channel is examined.
+	 */
+	private static int[] normalizeAndNegate(PixelBuffer image) {
+		int[] histogram = new int[256];
+		int[] pixels = image.getPixels();
+		int size = image.size();
+		for (int i = 0; i < size; i++) {
+			histogram[Pixels.blue(pixels[i])]++;
+		}
+
+		int low = level(histogram, size * BLACK_POINT);
+		int high = level(histogram, size * WHITE_POINT);
+		if (high <= low) {
+			high = low + 1;
+		}
+
+		int[] table = new int[256];
+		for (int v = 0; v < 256; v++) {
+			table[v] = 255 - Pixels.clamp((v - low) * 255 / (high - low));
+		}
+		return table;
+	}
+
+	private static int level(int[] histogram, double count) {
+		long seen = 0;
+		for (int v = 0; v < 256; v++) {
+			seen += histogram[v];
+			if (seen > count) {
+				return v;
+			}
+		}
+		return 255;
+	}
+}
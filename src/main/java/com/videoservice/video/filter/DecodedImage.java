@@ -0,0 +1,16 @@
+package com.videoservice.video.filter;
+
+/**
+ * An image decoded once by an ImageFilterEngine so that several effects
+ * can be applied to it. Effects only read from it, so it may be shared by
+ * concurrent apply() calls.
+ */
+public interface DecodedImage {
+
+	/**
+	 * Give back any pooled memory, after every effect using the image has
+	 * finished. Calls after the first do nothing.
+	 */
+	public void release();
+
+}
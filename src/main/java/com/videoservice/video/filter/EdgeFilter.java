@@ -0,0 +1,94 @@
+package com.videoservice.video.filter;
+
+/**
+ * Edge detection, like MagickImage.edgeImage(radius).
+ * 
+ * ImageMagick convolves with a square kernel whose entries are all -1
+ * except for the center, which is (width * width - 1). That is the same
+ * as area * center - (sum of the window), so the window sum is kept as
+ * a running total and the cost per pixel does not depend on the radius.
+ * 
+ * Each stripe primes its own column sums from its halo rows, so stripes
+ * can be processed independently by the TiledExecutor.
+ */
+public class EdgeFilter implements ImageFilter {
+
+	private final int radius;
+
+	private final TiledExecutor executor;
+
+	public EdgeFilter(double radius) {
+		this(radius, TiledExecutor.SEQUENTIAL);
+	}
+
+	public EdgeFilter(double radius, TiledExecutor executor) {
+		this.radius = Math.max(1, (int) Math.ceil(radius));
+		this.executor = executor;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	@Override
+	public void apply(final PixelBuffer src, final PixelBuffer dst, RasterPool pool) {
+		executor.forEachStripe(src.getHeight(), radius, new TiledExecutor.RowTask() {
+			@Override
+			public void run(int fromRow, int toRow) {
+				edges(src, dst, fromRow, toRow);
+			}
+		});
+	}
+
+	private void edges(PixelBuffer src, PixelBuffer dst, int fromRow, int toRow) {
+		int[] in = src.getPixels();
+		int[] out = dst.getPixels();
+		int width = src.getWidth();
+		int maxRow = src.getHeight() - 1;
+		int maxCol = width - 1;
+		int area = (2 * radius + 1) * (2 * radius + 1);
+
+		// Per-column sums of the rows currently inside the window
+		int[] colR = new int[width];
+		int[] colG = new int[width];
+		int[] colB = new int[width];
+		for (int i = -radius; i <= radius; i++) {
+			addRow(in, Pixels.clampIndex(fromRow + i, maxRow) * width, width, colR, colG, colB, 1);
+		}
+
+		for (int y = fromRow; y < toRow; y++) {
+			int row = y * width;
+			int sr = 0, sg = 0, sb = 0;
+			for (int i = -radius; i <= radius; i++) {
+				int c = Pixels.clampIndex(i, maxCol);
+				sr += colR[c];
+				sg += colG[c];
+				sb += colB[c];
+			}
+			for (int x = 0; x < width; x++) {
+				int p = in[row + x];
+				out[row + x] = Pixels.pack(area * Pixels.red(p) - sr,
+						area * Pixels.green(p) - sg,
+						area * Pixels.blue(p) - sb);
+
+				int leaving = Pixels.clampIndex(x - radius, maxCol);
+				int entering = Pixels.clampIndex(x + radius + 1, maxCol);
+				sr += colR[entering] - colR[leaving];
+				sg += colG[entering] - colG[leaving];
+				sb += colB[entering] - colB[leaving];
+			}
+
+			addRow(in, Pixels.clampIndex(y - radius, maxRow) * width, width, colR, colG, colB, -1);
+			addRow(in, Pixels.clampIndex(y + radius + 1, maxRow) * width, width, colR, colG, colB, 1);
+		}
+	}
+
+	private static void addRow(int[] in, int row, int width, int[] colR, int[] colG, int[] colB, int sign) {
+		for (int x = 0; x < width; x++) {
+			int p = in[row + x];
+			colR[x] += sign * Pixels.red(p);
+			colG[x] += sign * Pixels.green(p);
+			colB[x] += sign * Pixels.blue(p);
+		}
+	}
+}
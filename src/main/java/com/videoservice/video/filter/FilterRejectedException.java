@@ -0,0 +1,29 @@
+package com.videoservice.video.filter;
+
+/**
+ * Thrown by FilterWorkerPool when an effect already has as many
+ * requests waiting or running as it is allowed. The controller turns
+ * this into a 503 with a Retry-After header.
+ */
+public class FilterRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ImageEffect effect;
+
+	private final int retryAfterSeconds;
+
+	public FilterRejectedException(ImageEffect effect, int retryAfterSeconds) {
+		super("Too many " + effect + " requests in progress");
+		this.effect = effect;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public ImageEffect getEffect() {
+		return effect;
+	}
+
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
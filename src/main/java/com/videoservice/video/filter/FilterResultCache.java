@@ -0,0 +1,463 @@
+package com.videoservice.video.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A content-addressed cache of filtered images, keyed by the effect and
+ * a hash of the uploaded bytes. Clients that re-upload the same image
+ * get the stored JPEG back without it being decoded or encoded again.
+ * 
+ * Results live in a Guava cache bounded by their total size in bytes.
+ * When a spill directory is configured, entries evicted for size are
+ * written there and moved back into memory on their next hit. When the
+ * directory is full, the files that were spilled longest ago make room;
+ * since a hit takes its file out of the directory, that is the least
+ * recently used one. Files left by an earlier run are counted and kept.
+ * 
+ * Guava calls the removal listener on the thread whose put() evicted the
+ * entry, which is a request thread. So the listener only queues the
+ * write for a single background thread, and drops it when the queued
+ * writes already hold a quarter of maxBytes. A file is written under a
+ * temporary name and renamed, so a crash never leaves a partial result
+ * that a later run would serve; leftover temporary files are deleted on
+ * the next start.
+ * 
+ * The output also depends on the engine and its settings (such as the
+ * JPEG quality), so ImageFilterEngine.getVariant() is given as the
+ * variant and hashed into every key. Effects that are not deterministic
+ * are never stored.
+ */
+public class FilterResultCache {
+
+	/**
+	 * Identifies one filtered result.
+	 */
+	public static final class Key {
+
+		private final ImageEffect effect;
+		private final HashCode hash;
+
+		Key(ImageEffect effect, HashCode hash) {
+			this.effect = effect;
+			this.hash = hash;
+		}
+
+		public ImageEffect getEffect() {
+			return effect;
+		}
+
+		public HashCode getHash() {
+			return hash;
+		}
+
+		/**
+		 * The key for a different effect applied to the same upload.
+		 */
+		public Key forEffect(ImageEffect other) {
+			return new Key(other, hash);
+		}
+
+		/**
+		 * A strong ETag for the result. The hash covers the engine variant,
+		 * the maximum dimension and the uploaded bytes, so together with
+		 * the effect equal keys mean equal bytes. Not valid for effects
+		 * that are not deterministic, see ImageEffect.isDeterministic().
+		 */
+		public String toETag() {
+			return "\"" + fileName() + "\"";
+		}
+
+		String fileName() {
+			return effect.name().toLowerCase() + "-" + hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(effect, hash);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key other = (Key) obj;
+				return effect == other.effect && hash.equals(other.hash);
+			}
+			return false;
+		}
+	}
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private static final int HASH_BUFFER_SIZE = 16 * 1024;
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// What Key.fileName() produces; anything else in the directory is not ours
+	private static final Pattern SPILL_NAME = Pattern.compile(
+			"(" + Joiner.on('|').join(ImageEffect.values()).toLowerCase() + ")-[0-9a-f]{32}");
+
+	private final Cache<Key, byte[]> memory;
+
+	private final int maxEntryBytes;
+
+	// null when the disk tier is disabled
+	private final Path spillDir;
+
+	private final long maxSpillBytes;
+
+	// Writes evicted entries to spillDir; null when the disk tier is disabled
+	private final ExecutorService spillWriter;
+
+	private final long maxPendingSpillBytes;
+
+	private final AtomicLong pendingSpillBytes = new AtomicLong();
+
+	private final AtomicLong spillBytes = new AtomicLong();
+
+	// File name to size, oldest spill first. Guarded by itself.
+	private final LinkedHashMap<String, Long> spilled = new LinkedHashMap<String, Long>();
+
+	private final String variant;
+	private final AtomicLong spillHits = new AtomicLong();
+	private final AtomicLong spillWrites = new AtomicLong();
+
+	public FilterResultCache(long maxBytes, int maxEntryBytes, Path spillDir, long maxSpillBytes) throws IOException {
+		this(maxBytes, maxEntryBytes, spillDir, maxSpillBytes, "");
+	}
+
+	public FilterResultCache(long maxBytes, int maxEntryBytes, Path spillDir, long maxSpillBytes, String variant)
+			throws IOException {
+		this.maxEntryBytes = maxEntryBytes;
+		this.spillDir = spillDir;
+		this.maxSpillBytes = maxSpillBytes;
+		this.variant = variant;
+		this.maxPendingSpillBytes = maxBytes / 4;
+		if (spillDir != null) {
+			if (!Files.exists(spillDir)) {
+				Files.createDirectories(spillDir);
+			}
+			loadSpilled();
+			spillWriter = Executors.newSingleThreadExecutor(
+					new ThreadFactoryBuilder().setNameFormat("image-cache-spill").setDaemon(true).build());
+		} else {
+			spillWriter = null;
+		}
+		memory = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<Key, byte[]>() {
+					@Override
+					public int weigh(Key key, byte[] value) {
+						return value.length;
+					}
+				})
+				.removalListener(new RemovalListener<Key, byte[]>() {
+					@Override
+					public void onRemoval(RemovalNotification<Key, byte[]> notification) {
+						if (notification.wasEvicted()) {
+							queueSpill(notification.getKey(), notification.getValue());
+						}
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Compute the key for the image in the stream, filtered at the given
+	 * maximum dimension (0 for full size). The stream is read to the end
+	 * but not closed.
+	 */
+	public Key key(ImageEffect effect, int maxDimension, InputStream in) throws IOException {
+		Hasher hasher = HASH.newHasher();
+		hasher.putString(variant, Charsets.UTF_8);
+		hasher.putInt(maxDimension);
+		byte[] buffer = new byte[HASH_BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			hasher.putBytes(buffer, 0, n);
+		}
+		return new Key(effect, hasher.hash());
+	}
+
+	public Key key(ImageEffect effect, int maxDimension, byte[] image) {
+		return new Key(effect, HASH.newHasher().putString(variant, Charsets.UTF_8).putInt(maxDimension).putBytes(image)
+				.hash());
+	}
+
+	/**
+	 * Return the stored result, or null if it is in neither tier.
+	 */
+	public byte[] get(Key key) throws IOException {
+		if (!key.effect.isDeterministic()) {
+			return null;
+		}
+		byte[] result = memory.getIfPresent(key);
+		if (result == null && spillDir != null) {
+			result = unspill(key);
+		}
+		return result;
+	}
+
+	public void put(Key key, byte[] result) {
+		if (key.effect.isDeterministic() && result.length <= maxEntryBytes) {
+			memory.put(key, result);
+		}
+	}
+
+	/**
+	 * Wrap out so that everything written through it is also collected,
+	 * and stored under key when the returned stream is closed. Results
+	 * larger than the maximum entry size are passed through but not kept.
+	 */
+	public OutputStream capture(final Key key, OutputStream out) {
+		if (!key.effect.isDeterministic()) {
+			return out;
+		}
+		return new FilterOutputStream(out) {
+
+			private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				if (keep(1)) {
+					copy.write(b);
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				if (keep(len)) {
+					copy.write(b, off, len);
+				}
+			}
+
+			private boolean keep(int len) {
+				if (copy != null && copy.size() + len > maxEntryBytes) {
+					copy = null;
+				}
+				return copy != null;
+			}
+
+			@Override
+			public void close() throws IOException {
+				super.close();
+				if (copy != null) {
+					put(key, copy.toByteArray());
+					copy = null;
+				}
+			}
+		};
+	}
+
+	public Map<String, Object> getStats() {
+		CacheStats stats = memory.stats();
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("entries", memory.size());
+		result.put("hits", stats.hitCount());
+		result.put("misses", stats.missCount());
+		result.put("evictions", stats.evictionCount());
+		result.put("spill.hits", spillHits.get());
+		result.put("spill.writes", spillWrites.get());
+		result.put("spill.bytes", spillBytes.get());
+		return result;
+	}
+
+	/**
+	 * Stop writing evicted entries, after finishing those already queued.
+	 */
+	public void shutdown() throws InterruptedException {
+		if (spillWriter != null) {
+			spillWriter.shutdown();
+			spillWriter.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private void queueSpill(final Key key, final byte[] result) {
+		if (spillWriter == null || result.length > maxSpillBytes) {
+			return;
+		}
+		// The disk tier is best effort; losing an entry only costs a recompute
+		if (pendingSpillBytes.addAndGet(result.length) > maxPendingSpillBytes) {
+			pendingSpillBytes.addAndGet(-result.length);
+			return;
+		}
+		try {
+			spillWriter.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						spill(key, result);
+					} finally {
+						pendingSpillBytes.addAndGet(-result.length);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+			pendingSpillBytes.addAndGet(-result.length);
+		}
+	}
+
+	private void spill(Key key, byte[] result) {
+		String name = key.fileName();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(spillDir, name + ".", TEMP_SUFFIX);
+			Files.write(temp, result);
+			Files.move(temp, spillDir.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			deleteQuietly(temp);
+			return;
+		}
+		spillWrites.incrementAndGet();
+		synchronized (spilled) {
+			Long previous = spilled.remove(name);
+			if (previous != null) {
+				spillBytes.addAndGet(-previous);
+			}
+			spilled.put(name, (long) result.length);
+			spillBytes.addAndGet(result.length);
+			evictSpilled();
+		}
+	}
+
+	private byte[] unspill(Key key) throws IOException {
+		String name = key.fileName();
+		synchronized (spilled) {
+			if (!spilled.containsKey(name)) {
+				return null;
+			}
+		}
+		Path file = spillDir.resolve(name);
+		byte[] result;
+		try {
+			result = Files.readAllBytes(file);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		forget(name);
+		Files.deleteIfExists(file);
+		spillHits.incrementAndGet();
+		put(key, result);
+		return result;
+	}
+
+	private void forget(String name) {
+		synchronized (spilled) {
+			Long size = spilled.remove(name);
+			if (size != null) {
+				spillBytes.addAndGet(-size);
+			}
+		}
+	}
+
+	/**
+	 * Delete the oldest files until the directory fits maxSpillBytes.
+	 * Called with the lock on spilled held.
+	 */
+	private void evictSpilled() {
+		Iterator<Map.Entry<String, Long>> oldest = spilled.entrySet().iterator();
+		while (spillBytes.get() > maxSpillBytes && oldest.hasNext()) {
+			Map.Entry<String, Long> entry = oldest.next();
+			oldest.remove();
+			spillBytes.addAndGet(-entry.getValue());
+			try {
+				Files.deleteIfExists(spillDir.resolve(entry.getKey()));
+			} catch (IOException e) {
+				// Counted as gone; at worst the file lingers until the next start
+			}
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Deleted as a temporary file on the next start
+			}
+		}
+	}
+
+	/**
+	 * Count the files an earlier run left behind, oldest first, and trim
+	 * them to the limit. Writes it didn't finish are deleted, and files
+	 * that aren't named like a result are left alone.
+	 */
+	private void loadSpilled() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(spillDir)) {
+			for (Path file : dir) {
+				if (!Files.isRegularFile(file)) {
+					continue;
+				}
+				String name = file.getFileName().toString();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					Files.deleteIfExists(file);
+				} else if (SPILL_NAME.matcher(name).matches()) {
+					files.add(file);
+				}
+			}
+		}
+		final Map<Path, FileTime> modified = new HashMap<Path, FileTime>();
+		for (Path file : files) {
+			modified.put(file, Files.getLastModifiedTime(file));
+		}
+		Collections.sort(files, new Comparator<Path>() {
+			@Override
+			public int compare(Path a, Path b) {
+				return modified.get(a).compareTo(modified.get(b));
+			}
+		});
+		synchronized (spilled) {
+			for (Path file : files) {
+				long size = Files.size(file);
+				spilled.put(file.getFileName().toString(), size);
+				spillBytes.addAndGet(size);
+			}
+			evictSpilled();
+		}
+	}
+}
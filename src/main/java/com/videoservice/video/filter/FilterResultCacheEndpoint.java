@@ -0,0 +1,24 @@
+package com.videoservice.video.filter;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+/**
+ * Publishes the FilterResultCache counters as the "/imagecache" actuator
+ * endpoint.
+ */
+public class FilterResultCacheEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	private final FilterResultCache cache;
+
+	public FilterResultCacheEndpoint(FilterResultCache cache) {
+		super("imagecache");
+		this.cache = cache;
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		return cache.getStats();
+	}
+}
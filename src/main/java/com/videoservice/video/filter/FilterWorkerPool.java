@@ -0,0 +1,129 @@
+package com.videoservice.video.filter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A fixed set of threads dedicated to applying image effects, so that a
+ * burst of uploads cannot tie up every connector thread with CPU-bound
+ * work.
+ * 
+ * Each effect may have at most maxPerEffect jobs waiting or running at
+ * once. A job over that limit is rejected immediately with a
+ * FilterRejectedException instead of waiting in an unbounded queue.
+ * 
+ * Callers can either block on execute() or take the ListenableFuture from
+ * submit() and complete their response asynchronously.
+ */
+public class FilterWorkerPool {
+
+	private final ThreadPoolExecutor pool;
+
+	private final ListeningExecutorService executor;
+
+	private final Map<ImageEffect, Semaphore> admission = new EnumMap<ImageEffect, Semaphore>(ImageEffect.class);
+
+	private final int retryAfterSeconds;
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	public FilterWorkerPool(int threads, int maxPerEffect, int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+		// The semaphores bound the queue, so it never holds more than
+		// maxPerEffect jobs per effect
+		pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("image-filter-%d").setDaemon(true).build());
+		executor = MoreExecutors.listeningDecorator(pool);
+		for (ImageEffect effect : ImageEffect.values()) {
+			admission.put(effect, new Semaphore(maxPerEffect));
+		}
+	}
+
+	/**
+	 * Queue the job on a worker thread and return without waiting. The
+	 * effect's permit is given back when the job finishes.
+	 * 
+	 * @throws FilterRejectedException if the effect is at its limit
+	 */
+	public <T> ListenableFuture<T> submit(ImageEffect effect, Callable<T> job) {
+		final Semaphore permits = admission.get(effect);
+		if (!permits.tryAcquire()) {
+			rejected.incrementAndGet();
+			throw new FilterRejectedException(effect, retryAfterSeconds);
+		}
+		ListenableFuture<T> result;
+		try {
+			result = executor.submit(job);
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				permits.release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return result;
+	}
+
+	/**
+	 * Run the job on a worker thread and wait for its result.
+	 * 
+	 * @throws FilterRejectedException if the effect is at its limit
+	 */
+	public <T> T execute(ImageEffect effect, Callable<T> job) throws IOException {
+		return await(submit(effect, job));
+	}
+
+	/**
+	 * Wait for a job returned by submit() and rethrow whatever it threw.
+	 */
+	public static <T> T await(Future<T> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a filter", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("active", pool.getActiveCount());
+		result.put("queued", pool.getQueue().size());
+		result.put("completed", pool.getCompletedTaskCount());
+		result.put("rejected", rejected.get());
+		return result;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,232 @@
+package com.videoservice.video.filter;
+
+import java.util.Arrays;
+
+/**
+ * A Gaussian blur, like MagickImage.blurImage(radius, sigma).
+ * 
+ * The kernel is separable, so the image is blurred horizontally into a
+ * scratch buffer and then vertically into the destination. A radius of
+ * zero picks one automatically from sigma, as ImageMagick does.
+ * 
+ * The cost of the exact kernel grows with the radius, so when the radius
+ * is automatic and sigma is at least boxSigma the blur is approximated
+ * by three box blurs per direction instead, which cost O(1) per pixel.
+ * The boxes run on a copy of the image extended by the sum of their
+ * radii with its edge pixels repeated, the same edge the exact kernel
+ * sees, so that they don't clamp to the edge of an already blurred pass.
+ * That costs two scratch buffers of the extended size instead of one.
+ * An explicit radius is honoured exactly because a truncated kernel is
+ * not a Gaussian the boxes could approximate.
+ * 
+ * All passes are split into stripes by the TiledExecutor; a pass starts
+ * only after every stripe of the previous one is done.
+ */
+public class GaussianBlurFilter implements ImageFilter {
+
+	/**
+	 * Sigma at and above which the box approximation is used by default.
+	 * Below it the exact kernel is short enough to be cheap.
+	 */
+	public static final double DEFAULT_BOX_SIGMA = 4.0;
+
+	private final float[] kernel;
+
+	// null when the exact kernel is used
+	private final int[] boxRadii;
+
+	private final TiledExecutor executor;
+
+	public GaussianBlurFilter(double radius, double sigma) {
+		this(radius, sigma, TiledExecutor.SEQUENTIAL);
+	}
+
+	public GaussianBlurFilter(double radius, double sigma, TiledExecutor executor) {
+		this(radius, sigma, executor, DEFAULT_BOX_SIGMA);
+	}
+
+	public GaussianBlurFilter(double radius, double sigma, TiledExecutor executor, double boxSigma) {
+		this.kernel = kernel(radius, sigma);
+		this.boxRadii = radius <= 0 && sigma >= boxSigma ? BoxBlur.radii(sigma) : null;
+		this.executor = executor;
+	}
+
+	public int getRadius() {
+		return kernel.length / 2;
+	}
+
+	public boolean isApproximate() {
+		return boxRadii != null;
+	}
+
+	@Override
+	public void apply(final PixelBuffer src, final PixelBuffer dst, RasterPool pool) {
+		if (boxRadii != null) {
+			boxes(src, dst, pool);
+			return;
+		}
+		final PixelBuffer tmp = PixelBuffer.allocate(src.getWidth(), src.getHeight(), pool);
+		try {
+			executor.forEachStripe(src.getHeight(), 0, new TiledExecutor.RowTask() {
+				@Override
+				public void run(int fromRow, int toRow) {
+					horizontal(src, tmp, fromRow, toRow);
+				}
+			});
+			executor.forEachStripe(src.getHeight(), getRadius(), new TiledExecutor.RowTask() {
+				@Override
+				public void run(int fromRow, int toRow) {
+					vertical(tmp, dst, fromRow, toRow);
+				}
+			});
+		} finally {
+			tmp.release(pool);
+		}
+	}
+
+	/**
+	 * Three horizontal and then three vertical box passes over the
+	 * extended image, ping-ponging between two buffers, and the middle
+	 * of the result copied to dst.
+	 */
+	private void boxes(final PixelBuffer src, final PixelBuffer dst, RasterPool pool) {
+		// Each pass spreads the wrong values at the edge of its input by
+		// its radius, so this is where they stop
+		int margin = 0;
+		for (int radius : boxRadii) {
+			margin += radius;
+		}
+		final int pad = margin;
+		final int width = src.getWidth() + 2 * pad;
+		final int height = src.getHeight() + 2 * pad;
+		PixelBuffer a = PixelBuffer.allocate(width, height, pool);
+		PixelBuffer b = PixelBuffer.allocate(width, height, pool);
+		try {
+			final int[] extended = a.getPixels();
+			executor.forEachStripe(height, 0, new TiledExecutor.RowTask() {
+				@Override
+				public void run(int fromRow, int toRow) {
+					extend(src, extended, pad, fromRow, toRow);
+				}
+			});
+			PixelBuffer in = a;
+			PixelBuffer out = b;
+			for (int pass = 0; pass < 2 * BoxBlur.PASSES; pass++) {
+				final int[] from = in.getPixels();
+				final int[] to = out.getPixels();
+				final int radius = boxRadii[pass % BoxBlur.PASSES];
+				if (pass < BoxBlur.PASSES) {
+					executor.forEachStripe(height, 0, new TiledExecutor.RowTask() {
+						@Override
+						public void run(int fromRow, int toRow) {
+							BoxBlur.horizontal(from, to, width, radius, fromRow, toRow);
+						}
+					});
+				} else {
+					executor.forEachStripe(height, radius, new TiledExecutor.RowTask() {
+						@Override
+						public void run(int fromRow, int toRow) {
+							BoxBlur.vertical(from, to, width, height, radius, fromRow, toRow);
+						}
+					});
+				}
+				PixelBuffer swap = in;
+				in = out;
+				out = swap;
+			}
+			final int[] blurred = in.getPixels();
+			executor.forEachStripe(dst.getHeight(), 0, new TiledExecutor.RowTask() {
+				@Override
+				public void run(int fromRow, int toRow) {
+					int[] pixels = dst.getPixels();
+					for (int y = fromRow; y < toRow; y++) {
+						System.arraycopy(blurred, (y + pad) * width + pad, pixels, y * dst.getWidth(), dst.getWidth());
+					}
+				}
+			});
+		} finally {
+			a.release(pool);
+			b.release(pool);
+		}
+	}
+
+	/**
+	 * Rows [fromRow, toRow) of src extended by pad pixels on every side,
+	 * repeating the nearest edge pixel.
+	 */
+	private static void extend(PixelBuffer src, int[] out, int pad, int fromRow, int toRow) {
+		int[] in = src.getPixels();
+		int srcWidth = src.getWidth();
+		int width = srcWidth + 2 * pad;
+		for (int y = fromRow; y < toRow; y++) {
+			int from = Pixels.clampIndex(y - pad, src.getHeight() - 1) * srcWidth;
+			int row = y * width;
+			Arrays.fill(out, row, row + pad, in[from]);
+			System.arraycopy(in, from, out, row + pad, srcWidth);
+			Arrays.fill(out, row + pad + srcWidth, row + width, in[from + srcWidth - 1]);
+		}
+	}
+
+	private void horizontal(PixelBuffer src, PixelBuffer dst, int fromRow, int toRow) {
+		int[] in = src.getPixels();
+		int[] out = dst.getPixels();
+		int width = src.getWidth();
+		int radius = kernel.length / 2;
+		for (int y = fromRow; y < toRow; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				float r = 0.5f, g = 0.5f, b = 0.5f;
+				for (int i = -radius; i <= radius; i++) {
+					int p = in[row + Pixels.clampIndex(x + i, width - 1)];
+					float k = kernel[i + radius];
+					r += k * Pixels.red(p);
+					g += k * Pixels.green(p);
+					b += k * Pixels.blue(p);
+				}
+				out[row + x] = Pixels.pack((int) r, (int) g, (int) b);
+			}
+		}
+	}
+
+	private void vertical(PixelBuffer src, PixelBuffer dst, int fromRow, int toRow) {
+		int[] in = src.getPixels();
+		int[] out = dst.getPixels();
+		int width = src.getWidth();
+		int maxRow = src.getHeight() - 1;
+		int radius = kernel.length / 2;
+		for (int y = fromRow; y < toRow; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				float r = 0.5f, g = 0.5f, b = 0.5f;
+				for (int i = -radius; i <= radius; i++) {
+					int p = in[Pixels.clampIndex(y + i, maxRow) * width + x];
+					float k = kernel[i + radius];
+					r += k * Pixels.red(p);
+					g += k * Pixels.green(p);
+					b += k * Pixels.blue(p);
+				}
+				out[row + x] = Pixels.pack((int) r, (int) g, (int) b);
+			}
+		}
+	}
+
+	/**
+	 * Build a normalized one dimensional Gaussian kernel. ImageMagick
+	 * treats a radius of zero as "about three standard deviations".
+	 */
+	static float[] kernel(double radius, double sigma) {
+		int r = radius > 0 ? (int) Math.ceil(radius) : (int) Math.ceil(3.0 * sigma);
+		r = Math.max(r, 1);
+		float[] kernel = new float[2 * r + 1];
+		double sum = 0;
+		for (int i = -r; i <= r; i++) {
+			double v = Math.exp(-(i * i) / (2.0 * sigma * sigma));
+			kernel[i + r] = (float) v;
+			sum += v;
+		}
+		for (int i = 0; i < kernel.length; i++) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
+}
@@ -0,0 +1,17 @@
+package com.videoservice.video.filter;
+
+/**
+ * Converts the image to luma, like MagickImage.setGrayscale().
+ */
+public class GrayscaleFilter implements ImageFilter {
+
+	@Override
+	public void apply(PixelBuffer src, PixelBuffer dst, RasterPool pool) {
+		int[] in = src.getPixels();
+		int[] out = dst.getPixels();
+		int size = src.size();
+		for (int i = 0; i < size; i++) {
+			out[i] = Pixels.gray(Pixels.luma(in[i]));
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.videoservice.video.filter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Decodes uploaded images into pooled PixelBuffers and encodes buffers
+ * back to JPEG using the ImageIO codecs that ship with the JDK.
+ * 
+ * When the reader can produce TYPE_INT_RGB (the JPEG reader can for
+ * color images) the pooled array is wrapped in a BufferedImage and handed
+ * to the reader as its destination, so decoding does not allocate a
+ * second full-size raster.
+ */
+public class ImageCodec {
+
+	private static final int[] RGB_MASKS = { 0xff0000, 0xff00, 0xff };
+
+	private static final DirectColorModel RGB_MODEL = new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+
+	// 40 megapixels, a 160MB raster
+	public static final long DEFAULT_MAX_PIXELS = 40000000L;
+
+	private final float jpegQuality;
+
+	private final long maxPixels;
+
+	public ImageCodec(float jpegQuality) {
+		this(jpegQuality, DEFAULT_MAX_PIXELS);
+	}
+
+	/**
+	 * Images whose header declares more than maxPixels pixels are refused
+	 * before anything is decoded or allocated.
+	 */
+	public ImageCodec(float jpegQuality, long maxPixels) {
+		this.jpegQuality = jpegQuality;
+		this.maxPixels = maxPixels;
+		// The disk cache only helps with streams that cannot seek, and it
+		// costs a temporary file per request
+		ImageIO.setUseCache(false);
+	}
+
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+	public PixelBuffer decode(InputStream data, RasterPool pool) throws IOException {
+		return decode(data, pool, 0);
+	}
+
+	/**
+	 * Decode the image so that neither side is longer than maxDimension
+	 * (0 means full size).
+	 * 
+	 * Part of the reduction is done by the reader's source subsampling.
+	 * That is decimation, not DCT scaling: every row is still decoded, and
+	 * only every step-th pixel of every step-th row is kept, which aliases
+	 * fine detail. What it saves is the full-size raster. To keep preview
+	 * quality, subsampling does at most half of the reduction, and the
+	 * rest (at least 2x) is an area average over the kept pixels.
+	 */
+	public PixelBuffer decode(InputStream data, RasterPool pool, int maxDimension) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(data);
+		if (in == null) {
+			throw new IOException("Unable to read the uploaded image");
+		}
+		PixelBuffer decoded;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				decoded = read(reader, pool, maxDimension);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+
+		int longest = Math.max(decoded.getWidth(), decoded.getHeight());
+		if (maxDimension <= 0 || longest <= maxDimension) {
+			return decoded;
+		}
+		try {
+			PixelBuffer scaled = PixelBuffer.allocate(
+					Math.max(1, (int) ((long) decoded.getWidth() * maxDimension / longest)),
+					Math.max(1, (int) ((long) decoded.getHeight() * maxDimension / longest)), pool);
+			Resize.areaAverage(decoded, scaled);
+			return scaled;
+		} finally {
+			decoded.release(pool);
+		}
+	}
+
+	private PixelBuffer read(ImageReader reader, RasterPool pool, int maxDimension) throws IOException {
+		ImageReadParam param = reader.getDefaultReadParam();
+		int width = reader.getWidth(0);
+		int height = reader.getHeight(0);
+		if ((long) width * height > maxPixels) {
+			throw new ImageTooLargeException(width, height, maxPixels);
+		}
+		// Largest step that still leaves at least twice maxDimension pixels,
+		// so the area average always combines 2x2 or more kept pixels
+		int step = maxDimension > 0 ? Math.max(width, height) / (2 * maxDimension) : 1;
+		if (step > 1) {
+			param.setSourceSubsampling(step, step, 0, 0);
+			width = (width + step - 1) / step;
+			height = (height + step - 1) / step;
+		}
+
+		PixelBuffer buffer = PixelBuffer.allocate(width, height, pool);
+		try {
+			if (producesIntRgb(reader)) {
+				param.setDestination(wrap(buffer));
+				reader.read(0, param);
+			} else {
+				BufferedImage image = reader.read(0, param);
+				image.getRGB(0, 0, width, height, buffer.getPixels(), 0, width);
+			}
+			return buffer;
+		} catch (IOException | RuntimeException e) {
+			buffer.release(pool);
+			throw e;
+		}
+	}
+
+	/**
+	 * Encode the buffer as JPEG. Bytes are passed on to out as the writer
+	 * produces them rather than being collected first. The caller remains
+	 * responsible for closing out.
+	 */
+	public void encode(PixelBuffer buffer, OutputStream out) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		try {
+			ImageOutputStream stream = new StreamingImageOutputStream(out);
+			try {
+				writer.setOutput(stream);
+				ImageWriteParam param = writer.getDefaultWriteParam();
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(jpegQuality);
+				writer.write(null, new IIOImage(wrap(buffer), null, null), param);
+			} finally {
+				stream.close();
+			}
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * View a PixelBuffer as a TYPE_INT_RGB BufferedImage without copying.
+	 */
+	static BufferedImage wrap(PixelBuffer buffer) {
+		int width = buffer.getWidth();
+		DataBufferInt data = new DataBufferInt(buffer.getPixels(), buffer.size());
+		WritableRaster raster = Raster.createPackedRaster(data, width, buffer.getHeight(), width, RGB_MASKS, null);
+		return new BufferedImage(RGB_MODEL, raster, false, null);
+	}
+
+	private static boolean producesIntRgb(ImageReader reader) throws IOException {
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		while (types.hasNext()) {
+			if (types.next().getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
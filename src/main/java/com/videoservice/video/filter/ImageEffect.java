@@ -0,0 +1,47 @@
+package com.videoservice.video.filter;
+
+/**
+ * The effects that can be requested through the "/image/{effect}/data"
+ * endpoint. The numeric id is the value that clients put in the path.
+ * 
+ * Unknown ids map to NONE, which re-encodes the image without filtering
+ * it (this matches the "default" branch of the original switch).
+ */
+public enum ImageEffect {
+
+	NONE(-1),
+	NOISE(0),
+	BLUR(1),
+	CHARCOAL(2),
+	GRAYSCALE(3),
+	EDGE(4),
+	SOLARIZE(5);
+
+	private final int id;
+
+	private ImageEffect(int id) {
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * False for NOISE, whose output is random: the same upload gives
+	 * different bytes every time, so its results get neither an ETag nor
+	 * a cache entry.
+	 */
+	public boolean isDeterministic() {
+		return this != NOISE;
+	}
+
+	public static ImageEffect fromId(long id) {
+		for (ImageEffect effect : values()) {
+			if (effect.id == id) {
+				return effect;
+			}
+		}
+		return NONE;
+	}
+}
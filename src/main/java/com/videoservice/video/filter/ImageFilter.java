@@ -0,0 +1,18 @@
+package com.videoservice.video.filter;
+
+/**
+ * A pure-Java image effect that works directly on packed pixel buffers.
+ * 
+ * Implementations must be thread-safe: a single instance is shared by
+ * every request. Any scratch space should be borrowed from the pool and
+ * handed back before apply() returns.
+ */
+public interface ImageFilter {
+
+	/**
+	 * Write the filtered version of src into dst. Both buffers have the
+	 * same dimensions and src must not be modified.
+	 */
+	public void apply(PixelBuffer src, PixelBuffer dst, RasterPool pool);
+
+}
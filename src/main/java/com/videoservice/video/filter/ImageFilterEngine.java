@@ -0,0 +1,47 @@
+package com.videoservice.video.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Applies one of the ImageEffects to an encoded image. The controller
+ * only talks to this interface, so the implementation can be switched
+ * with the "image.filter.engine" property.
+ */
+public interface ImageFilterEngine {
+
+	/**
+	 * Apply the effect to the encoded image and return the result as
+	 * JPEG bytes.
+	 */
+	public byte[] apply(ImageEffect effect, byte[] imageBlob) throws IOException;
+
+	/**
+	 * Read the encoded image from in, apply the effect and write the JPEG
+	 * result to out as it is produced. Neither stream is closed.
+	 */
+	public void apply(ImageEffect effect, InputStream in, OutputStream out) throws IOException;
+
+	/**
+	 * Decode the image once so that several effects can be applied to it.
+	 * When maxDimension is positive the image is scaled down, as early as
+	 * the decoder allows, so that neither side is longer than that.
+	 * The caller must release() the result.
+	 */
+	public DecodedImage decode(InputStream in, int maxDimension) throws IOException;
+
+	/**
+	 * Apply the effect to an image returned by decode() and write the JPEG
+	 * result to out. The decoded image is left unchanged.
+	 */
+	public void apply(ImageEffect effect, DecodedImage image, OutputStream out) throws IOException;
+
+	/**
+	 * The engine and every setting of it that changes the output bytes,
+	 * so that FilterResultCache never serves results of one configuration
+	 * for another.
+	 */
+	public String getVariant();
+
+}
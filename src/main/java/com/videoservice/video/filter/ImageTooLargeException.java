@@ -0,0 +1,16 @@
+package com.videoservice.video.filter;
+
+import java.io.IOException;
+
+/**
+ * Thrown by ImageCodec when an upload's header declares more pixels than
+ * the codec is allowed to decode. The controller turns this into a 413.
+ */
+public class ImageTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ImageTooLargeException(int width, int height, long maxPixels) {
+		super("Image of " + width + "x" + height + " pixels exceeds the limit of " + maxPixels + " pixels");
+	}
+}
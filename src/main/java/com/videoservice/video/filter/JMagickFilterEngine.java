@@ -0,0 +1,152 @@
+package com.videoservice.video.filter;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import magick.ImageInfo;
+import magick.MagickException;
+import magick.MagickImage;
+
+import com.videoservice.video.metrics.ImageMetrics;
+import com.videoservice.video.metrics.ImageMetrics.Phase;
+
+/**
+ * The original engine, which hands every image to ImageMagick through
+ * JMagick.
+ */
+public class JMagickFilterEngine implements ImageFilterEngine {
+
+	private final ImageMetrics metrics;
+
+	public JMagickFilterEngine() {
+		this(new ImageMetrics());
+	}
+
+	/**
+	 * ImageMagick decodes each blob inside apply, so unlike the Java
+	 * engine every phase here is recorded under the requested effect.
+	 */
+	public JMagickFilterEngine(ImageMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * JMagick only works on complete blobs, so this reads the whole image
+	 * before filtering it.
+	 */
+	@Override
+	public void apply(ImageEffect effect, InputStream in, OutputStream out) throws IOException {
+		out.write(apply(effect, IOUtils.toByteArray(in)));
+	}
+
+	/**
+	 * JMagick cannot share a decoded image between calls, so this keeps
+	 * the encoded bytes and each effect decodes them again.
+	 */
+	@Override
+	public DecodedImage decode(InputStream in, int maxDimension) throws IOException {
+		return new BlobImage(IOUtils.toByteArray(in), maxDimension);
+	}
+
+	@Override
+	public void apply(ImageEffect effect, DecodedImage image, OutputStream out) throws IOException {
+		BlobImage blob = (BlobImage) image;
+		out.write(apply(effect, blob.imageBlob, blob.maxDimension));
+	}
+
+	/**
+	 * libjpeg only scales by powers of two, so finish the job here.
+	 */
+	private static MagickImage fit(MagickImage image, int maxDimension) throws MagickException {
+		Dimension size = image.getDimension();
+		int longest = Math.max(size.width, size.height);
+		if (longest <= maxDimension) {
+			return image;
+		}
+		return image.scaleImage(Math.max(1, size.width * maxDimension / longest),
+				Math.max(1, size.height * maxDimension / longest));
+	}
+
+	private static class BlobImage implements DecodedImage {
+
+		private final byte[] imageBlob;
+
+		private final int maxDimension;
+
+		BlobImage(byte[] imageBlob, int maxDimension) {
+			this.imageBlob = imageBlob;
+			this.maxDimension = maxDimension;
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+	@Override
+	public byte[] apply(ImageEffect effect, byte[] imageBlob) throws IOException {
+		return apply(effect, imageBlob, 0);
+	}
+
+	/**
+	 * ImageMagick's own defaults decide the output; none of the
+	 * image.filter settings apply to this engine.
+	 */
+	@Override
+	public String getVariant() {
+		return "jmagick";
+	}
+
+	private byte[] apply(ImageEffect effect, byte[] imageBlob, int maxDimension) throws IOException {
+		try {
+			ImageInfo info = new ImageInfo();
+			info.setMagick("jpeg");
+			if (maxDimension > 0) {
+				// The size hint lets libjpeg scale down while decoding
+				info.setSize(maxDimension + "x" + maxDimension);
+			}
+			long start = System.nanoTime();
+			MagickImage image = new MagickImage(info, imageBlob); //load image
+			if (maxDimension > 0) {
+				image = fit(image, maxDimension);
+			}
+			metrics.record(effect, Phase.DECODE, start);
+			start = System.nanoTime();
+
+			switch (effect) {
+			case NOISE:
+				//MultiplicativeGaussianNoise
+				image = image.addNoiseImage(3);
+				break;
+			case BLUR:
+				image = image.blurImage(0, 30);
+				break;
+			case CHARCOAL:
+				image = image.charcoalImage(10, 20);
+				break;
+			case GRAYSCALE:
+				image.setGrayscale();
+				break;
+			case EDGE:
+				image = image.edgeImage(0);
+				break;
+			case SOLARIZE:
+				image.solarizeImage(100);
+				break;
+			default:
+				break;
+			}
+			metrics.record(effect, Phase.FILTER, start);
+			start = System.nanoTime();
+			byte[] result = image.imageToBlob(info);
+			metrics.record(effect, Phase.ENCODE, start);
+			return result;
+		} catch (MagickException e) {
+			throw new IOException("JMagick was unable to apply " + effect, e);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.videoservice.video.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.videoservice.video.metrics.ImageMetrics;
+import com.videoservice.video.metrics.ImageMetrics.Phase;
+
+/**
+ * An engine that decodes, filters and encodes images entirely in Java.
+ * 
+ * Raster buffers are borrowed from a shared RasterPool and returned as
+ * soon as the encoded result is ready, so steady-state requests do not
+ * allocate full-size pixel arrays.
+ */
+public class JavaFilterEngine implements ImageFilterEngine {
+
+	// ImageMagick's default quantum depth is 16 bits, and the thresholds
+	// in the original JMagick calls are expressed in those units
+	private static final double QUANTUM_RANGE = 65535.0;
+
+	private static final double NOISE_SIGMA = 0.5;
+
+	private final Map<ImageEffect, ImageFilter> filters = new EnumMap<ImageEffect, ImageFilter>(ImageEffect.class);
+
+	private final ImageCodec codec;
+
+	private final RasterPool pool;
+
+	private final ImageMetrics metrics;
+
+	private final String variant;
+
+	public JavaFilterEngine(ImageCodec codec, RasterPool pool) {
+		this(codec, pool, TiledExecutor.SEQUENTIAL);
+	}
+
+	public JavaFilterEngine(ImageCodec codec, RasterPool pool, TiledExecutor executor) {
+		this(codec, pool, executor, GaussianBlurFilter.DEFAULT_BOX_SIGMA);
+	}
+
+	public JavaFilterEngine(ImageCodec codec, RasterPool pool, TiledExecutor executor, double boxBlurSigma) {
+		this(codec, pool, executor, boxBlurSigma, new ImageMetrics());
+	}
+
+	/**
+	 * The convolution filters (blur, charcoal and edge) split their work
+	 * into stripes on the given executor. The per-pixel filters are
+	 * memory bound and always run on the calling thread.
+	 * 
+	 * Blurs with an automatic radius and a sigma of at least boxBlurSigma
+	 * use the box approximation, see GaussianBlurFilter.
+	 * 
+	 * Decode, filter and encode times go to metrics. Decoding is recorded
+	 * under NONE because batch requests share one decoded image.
+	 */
+	public JavaFilterEngine(ImageCodec codec, RasterPool pool, TiledExecutor executor, double boxBlurSigma,
+			ImageMetrics metrics) {
+		this.codec = codec;
+		this.pool = pool;
+		this.metrics = metrics;
+		this.variant = "java/" + codec.getJpegQuality() + "/" + boxBlurSigma;
+
+		// Same parameters as the JMagick calls in JMagickFilterEngine
+		filters.put(ImageEffect.NOISE, new NoiseFilter(NOISE_SIGMA));
+		filters.put(ImageEffect.BLUR, new GaussianBlurFilter(0, 30, executor, boxBlurSigma));
+		filters.put(ImageEffect.CHARCOAL, new CharcoalFilter(10, 20, executor));
+		filters.put(ImageEffect.GRAYSCALE, new GrayscaleFilter());
+		filters.put(ImageEffect.EDGE, new EdgeFilter(0, executor));
+		filters.put(ImageEffect.SOLARIZE, new SolarizeFilter(100, QUANTUM_RANGE));
+	}
+
+	/**
+	 * The filter used for the effect, or null if the effect leaves the
+	 * image unchanged.
+	 */
+	public ImageFilter getFilter(ImageEffect effect) {
+		return filters.get(effect);
+	}
+
+	@Override
+	public byte[] apply(ImageEffect effect, byte[] imageBlob) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(imageBlob.length);
+		apply(effect, new ByteArrayInputStream(imageBlob), out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Only the pooled rasters and ImageIO's copy of the compressed input
+	 * are held in memory; the encoded result goes straight to out.
+	 */
+	@Override
+	public void apply(ImageEffect effect, InputStream in, OutputStream out) throws IOException {
+		DecodedImage image = decode(in, 0);
+		try {
+			apply(effect, image, out);
+		} finally {
+			image.release();
+		}
+	}
+
+	/**
+	 * The JPEG quality and the sigma from which blurs use boxes. The pixel
+	 * limit only refuses images, and the pool and executor don't change
+	 * any pixel.
+	 */
+	@Override
+	public String getVariant() {
+		return variant;
+	}
+
+	@Override
+	public DecodedImage decode(InputStream in, int maxDimension) throws IOException {
+		long start = System.nanoTime();
+		PooledImage image = new PooledImage(codec.decode(in, pool, maxDimension));
+		metrics.record(ImageEffect.NONE, Phase.DECODE, start);
+		return image;
+	}
+
+	@Override
+	public void apply(ImageEffect effect, DecodedImage image, OutputStream out) throws IOException {
+		PixelBuffer src = ((PooledImage) image).buffer;
+		ImageFilter filter = filters.get(effect);
+		if (filter == null) {
+			encode(effect, src, out);
+			return;
+		}
+		PixelBuffer dst = PixelBuffer.allocate(src.getWidth(), src.getHeight(), pool);
+		try {
+			long start = System.nanoTime();
+			filter.apply(src, dst, pool);
+			metrics.record(effect, Phase.FILTER, start);
+			encode(effect, dst, out);
+		} finally {
+			dst.release(pool);
+		}
+	}
+
+	/**
+	 * The encoder writes as it goes, so when out is the response this
+	 * also includes the time spent sending the image.
+	 */
+	private void encode(ImageEffect effect, PixelBuffer buffer, OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		codec.encode(buffer, out);
+		metrics.record(effect, Phase.ENCODE, start);
+	}
+
+	private class PooledImage implements DecodedImage {
+
+		private final PixelBuffer buffer;
+
+		// A second release would hand the same array to two later requests
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		PooledImage(PixelBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				buffer.release(pool);
+			}
+		}
+	}
+}
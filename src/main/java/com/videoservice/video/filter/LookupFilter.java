@@ -0,0 +1,28 @@
+package com.videoservice.video.filter;
+
+/**
+ * A filter that maps every channel value through a 256 entry table.
+ */
+public class LookupFilter implements ImageFilter {
+
+	private final int[] table;
+
+	public LookupFilter(int[] table) {
+		if (table.length != 256) {
+			throw new IllegalArgumentException("Lookup tables must have 256 entries");
+		}
+		this.table = table;
+	}
+
+	@Override
+	public void apply(PixelBuffer src, PixelBuffer dst, RasterPool pool) {
+		apply(table, src.getPixels(), dst.getPixels(), src.size());
+	}
+
+	static void apply(int[] table, int[] src, int[] dst, int size) {
+		for (int i = 0; i < size; i++) {
+			int p = src[i];
+			dst[i] = (table[Pixels.red(p)] << 16) | (table[Pixels.green(p)] << 8) | table[Pixels.blue(p)];
+		}
+	}
+}
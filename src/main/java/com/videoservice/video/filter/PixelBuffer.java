@@ -0,0 +1,60 @@
+package com.videoservice.video.filter;
+
+/**
+ * A decoded image held as packed 0xRRGGBB ints in row-major order.
+ * 
+ * The backing array usually comes from a RasterPool, so it may be
+ * longer than width * height. Only the first width * height entries
+ * are meaningful.
+ */
+public final class PixelBuffer {
+
+	private final int width;
+	private final int height;
+	private final int[] pixels;
+
+	public PixelBuffer(int width, int height, int[] pixels) {
+		if (pixels.length < width * height) {
+			throw new IllegalArgumentException("Pixel array is smaller than " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Borrow a buffer with the given dimensions from the pool. The
+	 * contents of the returned buffer are undefined.
+	 */
+	public static PixelBuffer allocate(int width, int height, RasterPool pool) {
+		long size = (long) width * height;
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Image of " + width + "x" + height + " pixels does not fit in an array");
+		}
+		return new PixelBuffer(width, height, pool.acquire((int) size));
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int size() {
+		return width * height;
+	}
+
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Hand the backing array back to the pool. The buffer must not be
+	 * used afterwards.
+	 */
+	public void release(RasterPool pool) {
+		pool.release(pixels);
+	}
+}
@@ -0,0 +1,46 @@
+package com.videoservice.video.filter;
+
+/**
+ * Helpers for working with packed 0xRRGGBB pixels.
+ */
+final class Pixels {
+
+	private Pixels() {
+	}
+
+	static int red(int p) {
+		return (p >> 16) & 0xff;
+	}
+
+	static int green(int p) {
+		return (p >> 8) & 0xff;
+	}
+
+	static int blue(int p) {
+		return p & 0xff;
+	}
+
+	static int clamp(int v) {
+		return v < 0 ? 0 : (v > 255 ? 255 : v);
+	}
+
+	static int pack(int r, int g, int b) {
+		return (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+	}
+
+	static int gray(int v) {
+		return (v << 16) | (v << 8) | v;
+	}
+
+	/**
+	 * Rec. 601 luma, the same weights ImageMagick uses for its
+	 * grayscale conversion.
+	 */
+	static int luma(int p) {
+		return (299 * red(p) + 587 * green(p) + 114 * blue(p) + 500) / 1000;
+	}
+
+	static int clampIndex(int i, int max) {
+		return i < 0 ? 0 : (i > max ? max : i);
+	}
+}
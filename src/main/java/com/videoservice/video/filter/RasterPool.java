@@ -0,0 +1,94 @@
+package com.videoservice.video.filter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of int[] raster buffers shared by all requests.
+ * 
+ * Arrays are bucketed by power-of-two capacity so that images with
+ * slightly different dimensions reuse the same buffers. The pool never
+ * holds on to more than maxRetainedBytes; anything released beyond that
+ * is simply left for the garbage collector.
+ */
+public class RasterPool {
+
+	private static final int MIN_CAPACITY = 1 << 10;
+
+	// Doubling anything above this would overflow, so larger arrays are
+	// allocated at their exact length and never pooled
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final ConcurrentMap<Integer, Queue<int[]>> buckets = new ConcurrentHashMap<Integer, Queue<int[]>>();
+
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	private final long maxRetainedBytes;
+
+	public RasterPool(long maxRetainedBytes) {
+		this.maxRetainedBytes = maxRetainedBytes;
+	}
+
+	/**
+	 * Return an array with at least the requested length. The contents
+	 * are undefined.
+	 */
+	public int[] acquire(int length) {
+		int capacity = capacityFor(length);
+		Queue<int[]> bucket = buckets.get(capacity);
+		if (bucket != null) {
+			int[] array = bucket.poll();
+			if (array != null) {
+				retainedBytes.addAndGet(-bytes(array));
+				return array;
+			}
+		}
+		return new int[capacity];
+	}
+
+	/**
+	 * Give an array back to the pool. Arrays that were not handed out by
+	 * acquire() are ignored.
+	 */
+	public void release(int[] array) {
+		if (array == null || array.length < MIN_CAPACITY || Integer.bitCount(array.length) != 1) {
+			return;
+		}
+		long size = bytes(array);
+		if (retainedBytes.addAndGet(size) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-size);
+			return;
+		}
+		Queue<int[]> bucket = buckets.get(array.length);
+		if (bucket == null) {
+			Queue<int[]> created = new ConcurrentLinkedQueue<int[]>();
+			bucket = buckets.putIfAbsent(array.length, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		bucket.offer(array);
+	}
+
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	private static int capacityFor(int length) {
+		if (length <= MIN_CAPACITY) {
+			return MIN_CAPACITY;
+		}
+		if (length > MAX_CAPACITY) {
+			return length;
+		}
+		int capacity = Integer.highestOneBit(length);
+		return capacity == length ? capacity : capacity << 1;
+	}
+
+	private static long bytes(int[] array) {
+		return 4L * array.length;
+	}
+}
@@ -0,0 +1,43 @@
+package com.videoservice.video.filter;
+
+/**
+ * Image downscaling.
+ */
+final class Resize {
+
+	private Resize() {
+	}
+
+	/**
+	 * Shrink src into dst by averaging the block of source pixels that
+	 * each destination pixel covers. dst must not be larger than src.
+	 */
+	static void areaAverage(PixelBuffer src, PixelBuffer dst) {
+		int[] in = src.getPixels();
+		int[] out = dst.getPixels();
+		int srcWidth = src.getWidth();
+		int srcHeight = src.getHeight();
+		int dstWidth = dst.getWidth();
+		int dstHeight = dst.getHeight();
+		for (int y = 0; y < dstHeight; y++) {
+			int y0 = (int) ((long) y * srcHeight / dstHeight);
+			int y1 = Math.max(y0 + 1, (int) ((long) (y + 1) * srcHeight / dstHeight));
+			for (int x = 0; x < dstWidth; x++) {
+				int x0 = (int) ((long) x * srcWidth / dstWidth);
+				int x1 = Math.max(x0 + 1, (int) ((long) (x + 1) * srcWidth / dstWidth));
+				int r = 0, g = 0, b = 0;
+				for (int sy = y0; sy < y1; sy++) {
+					int row = sy * srcWidth;
+					for (int sx = x0; sx < x1; sx++) {
+						int p = in[row + sx];
+						r += Pixels.red(p);
+						g += Pixels.green(p);
+						b += Pixels.blue(p);
+					}
+				}
+				int n = (y1 - y0) * (x1 - x0);
+				out[y * dstWidth + x] = Pixels.pack((r + n / 2) / n, (g + n / 2) / n, (b + n / 2) / n);
+			}
+		}
+	}
+}
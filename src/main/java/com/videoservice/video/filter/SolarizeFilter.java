@@ -0,0 +1,23 @@
+package com.videoservice.video.filter;
+
+/**
+ * Negates every channel value above a threshold, like
+ * MagickImage.solarizeImage(threshold).
+ * 
+ * The threshold is expressed in ImageMagick quantum units so that the
+ * same value can be passed to either engine.
+ */
+public class SolarizeFilter extends LookupFilter {
+
+	public SolarizeFilter(double threshold, double quantumRange) {
+		super(table(threshold * 255.0 / quantumRange));
+	}
+
+	private static int[] table(double threshold) {
+		int[] table = new int[256];
+		for (int v = 0; v < 256; v++) {
+			table[v] = v > threshold ? 255 - v : v;
+		}
+		return table;
+	}
+}
@@ -0,0 +1,69 @@
+package com.videoservice.video.filter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * An ImageOutputStream that writes straight through to an OutputStream.
+ * 
+ * The stream ImageIO creates for an OutputStream keeps everything written
+ * in an in-memory cache until it is closed, which means a second copy of
+ * the whole encoded image. The JPEG writer only ever appends, so nothing
+ * needs to be cached and seeking backwards is not supported.
+ */
+class StreamingImageOutputStream extends ImageOutputStreamImpl {
+
+	private final OutputStream out;
+
+	StreamingImageOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		flushBits();
+		out.write(b);
+		streamPos++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		flushBits();
+		out.write(b, off, len);
+		streamPos += len;
+	}
+
+	@Override
+	public int read() throws IOException {
+		throw new IOException("StreamingImageOutputStream is write-only");
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		throw new IOException("StreamingImageOutputStream is write-only");
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		if (pos != streamPos) {
+			throw new IOException("StreamingImageOutputStream cannot seek");
+		}
+		bitOffset = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Leaves the underlying stream open; it belongs to the caller.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		super.close();
+	}
+}
@@ -0,0 +1,103 @@
+package com.videoservice.video.filter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a row-oriented filter pass over horizontal stripes of an image
+ * on a shared ForkJoinPool.
+ * 
+ * Each stripe writes only its own rows of the destination, but reads
+ * its halo (the rows above and below it that the kernel reaches) from
+ * the complete, unmodified source. Every output row is therefore
+ * computed exactly as it would be by a single thread, and the stripes
+ * fit together without seams.
+ */
+public class TiledExecutor {
+
+	/**
+	 * A pass that can compute any contiguous range of output rows.
+	 */
+	public interface RowTask {
+		public void run(int fromRow, int toRow);
+	}
+
+	/**
+	 * Runs every pass on the calling thread.
+	 */
+	public static final TiledExecutor SEQUENTIAL = new TiledExecutor(null, Integer.MAX_VALUE);
+
+	// A stripe re-reads its halo, so stripes much shorter than the halo
+	// would spend most of their time on rows they do not write
+	private static final int HALO_FACTOR = 4;
+
+	private final ForkJoinPool pool;
+
+	private final int tileRows;
+
+	public TiledExecutor(int parallelism, int tileRows) {
+		this(parallelism > 1 ? new ForkJoinPool(parallelism) : null, tileRows);
+	}
+
+	private TiledExecutor(ForkJoinPool pool, int tileRows) {
+		if (tileRows < 1) {
+			throw new IllegalArgumentException("tileRows must be positive");
+		}
+		this.pool = pool;
+		this.tileRows = tileRows;
+	}
+
+	public int getParallelism() {
+		return pool == null ? 1 : pool.getParallelism();
+	}
+
+	/**
+	 * Run the task over rows [0, height) and return once every stripe is
+	 * done. haloRows is how far above and below its own rows the task
+	 * reads from its source.
+	 */
+	public void forEachStripe(int height, int haloRows, RowTask task) {
+		int stripe = Math.max(tileRows, HALO_FACTOR * haloRows);
+		if (pool == null || height <= stripe) {
+			task.run(0, height);
+		} else {
+			pool.invoke(new StripeAction(task, 0, height, stripe));
+		}
+	}
+
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	private static final class StripeAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowTask task;
+		private final int fromRow;
+		private final int toRow;
+		private final int stripe;
+
+		StripeAction(RowTask task, int fromRow, int toRow, int stripe) {
+			this.task = task;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.stripe = stripe;
+		}
+
+		@Override
+		protected void compute() {
+			int rows = toRow - fromRow;
+			if (rows <= stripe) {
+				task.run(fromRow, toRow);
+				return;
+			}
+			// Split on a stripe boundary so the leaves are full stripes
+			int mid = fromRow + ((rows / stripe + 1) / 2) * stripe;
+			invokeAll(new StripeAction(task, fromRow, mid, stripe),
+					new StripeAction(task, mid, toRow, stripe));
+		}
+	}
+}
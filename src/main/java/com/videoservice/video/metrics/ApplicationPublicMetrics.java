@@ -0,0 +1,51 @@
+package com.videoservice.video.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.endpoint.VanillaPublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.actuate.metrics.reader.MetricReader;
+
+import com.videoservice.video.filter.FilterResultCache;
+import com.videoservice.video.filter.FilterWorkerPool;
+
+/**
+ * The metrics served by the actuator "/metrics" endpoint: Spring Boot's
+ * standard ones plus the image pipeline's latencies and the result cache
+ * and worker pool counters.
+ */
+public class ApplicationPublicMetrics implements PublicMetrics {
+
+	private final PublicMetrics vanilla;
+	private final ImageMetrics imageMetrics;
+	private final FilterResultCache resultCache;
+	private final FilterWorkerPool workerPool;
+
+	public ApplicationPublicMetrics(MetricReader reader, ImageMetrics imageMetrics,
+			FilterResultCache resultCache, FilterWorkerPool workerPool) {
+		this.vanilla = new VanillaPublicMetrics(reader);
+		this.imageMetrics = imageMetrics;
+		this.resultCache = resultCache;
+		this.workerPool = workerPool;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>(vanilla.metrics());
+		metrics.addAll(imageMetrics.metrics());
+		addAll(metrics, "image.cache.", resultCache.getStats());
+		addAll(metrics, "image.workers.", workerPool.getStats());
+		return metrics;
+	}
+
+	private static void addAll(Collection<Metric<?>> metrics, String prefix, Map<String, Object> stats) {
+		for (Map.Entry<String, Object> stat : stats.entrySet()) {
+			if (stat.getValue() instanceof Number) {
+				metrics.add(new Metric<Number>(prefix + stat.getKey(), (Number) stat.getValue()));
+			}
+		}
+	}
+}
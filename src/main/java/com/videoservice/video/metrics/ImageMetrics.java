@@ -0,0 +1,93 @@
+package com.videoservice.video.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+import com.videoservice.video.filter.ImageEffect;
+
+/**
+ * Latency, in-flight and byte counters for the image endpoints.
+ * 
+ * Every phase of a request is timed separately for each effect. Work
+ * shared by several effects (the read and zip write of a batch request,
+ * and decoding in the Java engine) is recorded under "none". All
+ * counters are LongAdders, so recording never takes a lock on the
+ * request path.
+ */
+public class ImageMetrics {
+
+	public enum Phase {
+		READ, DECODE, FILTER, ENCODE, WRITE
+	}
+
+	private static final double[] PERCENTILES = { 50, 90, 99 };
+
+	private final LatencyRecorder[][] latencies;
+	private final LongAdder[] inFlight;
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+
+	public ImageMetrics() {
+		ImageEffect[] effects = ImageEffect.values();
+		latencies = new LatencyRecorder[effects.length][Phase.values().length];
+		inFlight = new LongAdder[effects.length];
+		for (int e = 0; e < effects.length; e++) {
+			for (int p = 0; p < Phase.values().length; p++) {
+				latencies[e][p] = new LatencyRecorder();
+			}
+			inFlight[e] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record the time since startNanos (from System.nanoTime()).
+	 */
+	public void record(ImageEffect effect, Phase phase, long startNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+		latencies[effect.ordinal()][phase.ordinal()].record(micros);
+	}
+
+	public void started(ImageEffect effect) {
+		inFlight[effect.ordinal()].increment();
+	}
+
+	public void finished(ImageEffect effect) {
+		inFlight[effect.ordinal()].decrement();
+	}
+
+	public void addBytesIn(long bytes) {
+		bytesIn.add(bytes);
+	}
+
+	public void addBytesOut(long bytes) {
+		bytesOut.add(bytes);
+	}
+
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Long>("image.bytes.in", bytesIn.sum()));
+		metrics.add(new Metric<Long>("image.bytes.out", bytesOut.sum()));
+		for (ImageEffect effect : ImageEffect.values()) {
+			String prefix = "image." + effect.name().toLowerCase();
+			metrics.add(new Metric<Long>(prefix + ".inflight", inFlight[effect.ordinal()].sum()));
+			for (Phase phase : Phase.values()) {
+				LatencyRecorder recorder = latencies[effect.ordinal()][phase.ordinal()];
+				if (recorder.getCount() == 0) {
+					continue;
+				}
+				String name = prefix + "." + phase.name().toLowerCase();
+				metrics.add(new Metric<Long>(name + ".count", recorder.getCount()));
+				metrics.add(new Metric<Double>(name + ".mean.us", recorder.getMean()));
+				for (double percentile : PERCENTILES) {
+					metrics.add(new Metric<Long>(name + ".p" + (int) percentile + ".us",
+							recorder.getPercentile(percentile)));
+				}
+			}
+		}
+		return metrics;
+	}
+}
@@ -2,6 +2,14 @@ package com.videoservice.video.model;
 
 import java.util.Set;
 
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Objects;
 
@@ -17,8 +25,19 @@ import com.google.common.base.Objects;
  * 
  * @author jules, mitchell
  */
+// The indexes end in id because GET /video pages are ordered by id
+@Entity
+@Table(indexes = {
+		@Index(name = "video_owner", columnList = "owner,id"),
+		@Index(name = "video_subject", columnList = "subject,id"),
+		@Index(name = "video_rating", columnList = "rating,id") })
 public class Video {
 
+	// Identity columns would make Hibernate insert rows one at a time,
+	// a sequence lets JpaVideoRepository.saveAll() batch them
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "video_seq")
+	@SequenceGenerator(name = "video_seq", allocationSize = 50)
 	private long id;
 
 	private String title;
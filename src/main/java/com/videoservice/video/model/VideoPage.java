@@ -0,0 +1,27 @@
+package com.videoservice.video.model;
+
+import java.util.List;
+
+/**
+ * One page of a video listing, see VideoQuery.
+ */
+public class VideoPage {
+
+	private final List<Video> videos;
+
+	// The cursor for the following page, or null on the last page
+	private final Long nextCursor;
+
+	public VideoPage(List<Video> videos, Long nextCursor) {
+		this.videos = videos;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<Video> getVideos() {
+		return videos;
+	}
+
+	public Long getNextCursor() {
+		return nextCursor;
+	}
+}
@@ -0,0 +1,107 @@
+package com.videoservice.video.model;
+
+import com.google.common.base.Objects;
+
+/**
+ * Filters and paging for a video listing. Null fields match every video.
+ * 
+ * Results are ordered by id. The cursor is the id of the last video of
+ * the previous page, and a page starts right after it.
+ */
+public class VideoQuery {
+
+	private long cursor;
+	private int limit;
+	private String owner;
+	private String subject;
+	private String location;
+	private Integer minRating;
+	private Integer maxRating;
+
+	public VideoQuery(long cursor, int limit) {
+		this.cursor = cursor;
+		this.limit = Math.max(1, limit);
+	}
+
+	public long getCursor() {
+		return cursor;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public VideoQuery setOwner(String owner) {
+		this.owner = owner;
+		return this;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public VideoQuery setSubject(String subject) {
+		this.subject = subject;
+		return this;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public VideoQuery setLocation(String location) {
+		this.location = location;
+		return this;
+	}
+
+	public Integer getMinRating() {
+		return minRating;
+	}
+
+	public VideoQuery setMinRating(Integer minRating) {
+		this.minRating = minRating;
+		return this;
+	}
+
+	public Integer getMaxRating() {
+		return maxRating;
+	}
+
+	public VideoQuery setMaxRating(Integer maxRating) {
+		this.maxRating = maxRating;
+		return this;
+	}
+
+	public boolean matches(Video video) {
+		return video.getId() > cursor
+				&& (owner == null || owner.equals(video.getOwner()))
+				&& (subject == null || subject.equals(video.getSubject()))
+				&& (location == null || location.equals(video.getLocation()))
+				&& (minRating == null || video.getRating() >= minRating)
+				&& (maxRating == null || video.getRating() <= maxRating);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(cursor, limit, owner, subject, location, minRating, maxRating);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof VideoQuery) {
+			VideoQuery other = (VideoQuery) obj;
+			return cursor == other.cursor
+					&& limit == other.limit
+					&& Objects.equal(owner, other.owner)
+					&& Objects.equal(subject, other.subject)
+					&& Objects.equal(location, other.location)
+					&& Objects.equal(minRating, other.minRating)
+					&& Objects.equal(maxRating, other.maxRating);
+		}
+		return false;
+	}
+}
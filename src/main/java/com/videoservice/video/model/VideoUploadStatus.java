@@ -0,0 +1,60 @@
+package com.videoservice.video.model;
+
+import java.util.List;
+
+/**
+ * The state of a chunked video upload. A client that lost its connection
+ * asks for this and sends only the bytes outside the received ranges.
+ */
+public class VideoUploadStatus {
+
+	private String uploadId;
+	private long size;
+
+	// [first, end) byte offsets, sorted and non-overlapping
+	private List<long[]> received;
+
+	private boolean complete;
+
+	public VideoUploadStatus() {
+	}
+
+	public VideoUploadStatus(String uploadId, long size, List<long[]> received, boolean complete) {
+		this.uploadId = uploadId;
+		this.size = size;
+		this.received = received;
+		this.complete = complete;
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public void setUploadId(String uploadId) {
+		this.uploadId = uploadId;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public List<long[]> getReceived() {
+		return received;
+	}
+
+	public void setReceived(List<long[]> received) {
+		this.received = received;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+}
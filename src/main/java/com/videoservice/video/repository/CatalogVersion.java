@@ -0,0 +1,30 @@
+package com.videoservice.video.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter that changes on every change to a repository, for ETags.
+ * 
+ * It starts from the clock (shifted left by 20 bits) rather than from 0,
+ * so that a restarted server does not reuse the versions of the previous
+ * run, whose catalog may have been different.
+ */
+class CatalogVersion {
+
+	private final AtomicLong version = new AtomicLong(System.currentTimeMillis() << 20);
+
+	private volatile long lastModified = System.currentTimeMillis();
+
+	void changed() {
+		lastModified = System.currentTimeMillis();
+		version.incrementAndGet();
+	}
+
+	long get() {
+		return version.get();
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+}
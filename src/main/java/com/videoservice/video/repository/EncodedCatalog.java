@@ -0,0 +1,116 @@
+package com.videoservice.video.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoPage;
+import com.videoservice.video.model.VideoQuery;
+
+/**
+ * Pre-encoded JSON for GET /video, so that repeated listings are a copy
+ * of stored bytes rather than a Jackson pass over every video.
+ * 
+ * Every stored Video is encoded once. Both repositories store a new
+ * instance on every save, so the encoded form is cached by identity and
+ * is never stale: a changed video is a different object, and the old
+ * entry goes away with the old object. Pages are assembled from those
+ * bytes and kept per repository version, so a page is built once after
+ * each change and then served as is.
+ * 
+ * The videos are written with the mapper that the MVC message converters
+ * use, so the stored bytes match what @ResponseBody would produce.
+ */
+public class EncodedCatalog {
+
+	private final VideoRepository repository;
+
+	private final ObjectWriter writer;
+
+	// weakKeys() compares keys by identity, which is what we want here
+	private final Cache<Video, byte[]> videos = CacheBuilder.newBuilder().weakKeys().build();
+
+	private final Cache<PageKey, EncodedPage> pages;
+
+	public EncodedCatalog(VideoRepository repository, ObjectMapper mapper, int maxPages) {
+		this.repository = repository;
+		this.writer = mapper.writer();
+		this.pages = CacheBuilder.newBuilder().maximumSize(maxPages).build();
+	}
+
+	/**
+	 * The page for the query as of the given repository version, which
+	 * the caller should read before calling, so that the page is never
+	 * older than the version it is stored under.
+	 */
+	public EncodedPage find(final long version, final VideoQuery query) throws IOException {
+		try {
+			return pages.get(new PageKey(version, query), new Callable<EncodedPage>() {
+				@Override
+				public EncodedPage call() throws IOException {
+					return encode(repository.find(query));
+				}
+			});
+		} catch (ExecutionException e) {
+			throw (IOException) e.getCause();
+		} catch (UncheckedExecutionException e) {
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	private EncodedPage encode(VideoPage page) throws IOException {
+		ByteArrayOutputStream json = new ByteArrayOutputStream(256 * (page.getVideos().size() + 1));
+		json.write('[');
+		for (Video video : page.getVideos()) {
+			if (json.size() > 1) {
+				json.write(',');
+			}
+			json.write(encode(video));
+		}
+		json.write(']');
+		return new EncodedPage(json.toByteArray(), page.getNextCursor());
+	}
+
+	private byte[] encode(Video video) throws IOException {
+		byte[] encoded = videos.getIfPresent(video);
+		if (encoded == null) {
+			encoded = writer.writeValueAsBytes(video);
+			videos.put(video, encoded);
+		}
+		return encoded;
+	}
+
+	private static class PageKey {
+
+		private final long version;
+
+		private final VideoQuery query;
+
+		PageKey(long version, VideoQuery query) {
+			this.version = version;
+			this.query = query;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(version, query);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof PageKey) {
+				PageKey other = (PageKey) obj;
+				return version == other.version && query.equals(other.query);
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.videoservice.video.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A page of the catalog already encoded as a UTF-8 JSON array, see
+ * EncodedCatalog. Instances never change, so the bytes can be written to
+ * any number of responses at once.
+ */
+public class EncodedPage {
+
+	private final byte[] json;
+
+	private final Long nextCursor;
+
+	// Compressed on first use, racing threads at worst both compress it
+	private volatile byte[] gzipped;
+
+	EncodedPage(byte[] json, Long nextCursor) {
+		this.json = json;
+		this.nextCursor = nextCursor;
+	}
+
+	public byte[] getJson() {
+		return json;
+	}
+
+	/**
+	 * The cursor for the following page, or null on the last page.
+	 */
+	public Long getNextCursor() {
+		return nextCursor;
+	}
+
+	public byte[] getGzipped() throws IOException {
+		byte[] result = gzipped;
+		if (result == null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+			GZIPOutputStream gzip = new GZIPOutputStream(out);
+			gzip.write(json);
+			gzip.close();
+			result = out.toByteArray();
+			gzipped = result;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,228 @@
+package com.videoservice.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoPage;
+import com.videoservice.video.model.VideoQuery;
+
+/**
+ * Keeps the videos in memory only, indexed by owner, subject, location
+ * and rating. Nothing survives a restart.
+ */
+public class InMemoryVideoRepository implements VideoRepository {
+
+	// We make sure that our data structure is thread-safe to avoid
+	// race conditions. It is sorted by id so that a page can start
+	// right after the cursor.
+	private final ConcurrentNavigableMap<Long, Video> video_ = new ConcurrentSkipListMap<Long, Video>();
+
+	// Secondary indexes from a field value to the ids of the videos
+	// that have it. They are only changed under the repository lock,
+	// together with video_, and read without locking.
+	private final ConcurrentMap<String, Posting> byOwner_ = new ConcurrentHashMap<String, Posting>();
+	private final ConcurrentMap<String, Posting> bySubject_ = new ConcurrentHashMap<String, Posting>();
+	private final ConcurrentMap<String, Posting> byLocation_ = new ConcurrentHashMap<String, Posting>();
+	private final ConcurrentNavigableMap<Integer, Posting> byRating_ = new ConcurrentSkipListMap<Integer, Posting>();
+
+	private long lastId_;
+
+	private final CatalogVersion version_ = new CatalogVersion();
+
+	@Override
+	public Iterable<Video> findAll() {
+		return video_.values();
+	}
+
+	@Override
+	public Video findOne(long id) {
+		return video_.get(id);
+	}
+
+	/**
+	 * Stores a copy of the video, so later changes to the caller's
+	 * object cannot get the indexes out of step.
+	 */
+	@Override
+	public synchronized Video save(Video video) {
+		if (video.getId() <= 0) {
+			video.setId(lastId_ + 1);
+		}
+		lastId_ = Math.max(lastId_, video.getId());
+		Video stored = copyOf(video);
+		Video previous = video_.put(stored.getId(), stored);
+		if (previous != null) {
+			unindex(previous);
+		}
+		index(stored);
+		version_.changed();
+		return stored;
+	}
+
+	@Override
+	public synchronized Collection<Video> saveAll(Collection<Video> videos) {
+		List<Video> stored = new ArrayList<Video>(videos.size());
+		for (Video video : videos) {
+			stored.add(save(video));
+		}
+		return stored;
+	}
+
+	@Override
+	public synchronized void delete(long id) {
+		Video previous = video_.remove(id);
+		if (previous != null) {
+			unindex(previous);
+			version_.changed();
+		}
+	}
+
+	@Override
+	public long getVersion() {
+		return version_.get();
+	}
+
+	@Override
+	public long getLastModified() {
+		return version_.getLastModified();
+	}
+
+	/**
+	 * One page of the videos matching the query. The smallest index
+	 * selected by an equality filter drives the scan, or the rating
+	 * index for rating-only queries, so a page costs about its own
+	 * size rather than the size of the catalog.
+	 */
+	@Override
+	public VideoPage find(VideoQuery query) {
+		Iterator<Long> ids = candidates(query);
+		List<Video> page = new ArrayList<Video>(Math.min(query.getLimit(), 64));
+		while (ids.hasNext()) {
+			Video video = video_.get(ids.next());
+			if (video == null || !query.matches(video)) {
+				continue;
+			}
+			if (page.size() == query.getLimit()) {
+				return new VideoPage(page, page.get(page.size() - 1).getId());
+			}
+			page.add(video);
+		}
+		return new VideoPage(page, null);
+	}
+
+	private Iterator<Long> candidates(VideoQuery query) {
+		long after = query.getCursor();
+		Posting best = null;
+		best = smaller(best, lookup(byOwner_, query.getOwner()));
+		best = smaller(best, lookup(bySubject_, query.getSubject()));
+		best = smaller(best, lookup(byLocation_, query.getLocation()));
+		if (best != null) {
+			return best.ids.tailSet(after, false).iterator();
+		}
+		if (query.getMinRating() != null || query.getMaxRating() != null) {
+			//one sorted run per rating, merged back into id order
+			Map<Integer, Posting> ratings;
+			if (query.getMinRating() != null && query.getMaxRating() != null) {
+				ratings = byRating_.subMap(query.getMinRating(), true, query.getMaxRating(), true);
+			} else if (query.getMinRating() != null) {
+				ratings = byRating_.tailMap(query.getMinRating(), true);
+			} else {
+				ratings = byRating_.headMap(query.getMaxRating(), true);
+			}
+			List<Iterator<Long>> runs = new ArrayList<Iterator<Long>>();
+			for (Posting posting : ratings.values()) {
+				runs.add(posting.ids.tailSet(after, false).iterator());
+			}
+			return Iterators.mergeSorted(runs, Ordering.<Long> natural());
+		}
+		return video_.tailMap(after, false).keySet().iterator();
+	}
+
+	private static Posting lookup(Map<String, Posting> index, String value) {
+		if (value == null) {
+			return null;
+		}
+		Posting posting = index.get(value);
+		return posting != null ? posting : Posting.EMPTY;
+	}
+
+	private static Posting smaller(Posting a, Posting b) {
+		if (a == null) {
+			return b;
+		}
+		return b != null && b.size < a.size ? b : a;
+	}
+
+	private void index(Video video) {
+		add(byOwner_, video.getOwner(), video.getId());
+		add(bySubject_, video.getSubject(), video.getId());
+		add(byLocation_, video.getLocation(), video.getId());
+		add(byRating_, video.getRating(), video.getId());
+	}
+
+	private void unindex(Video video) {
+		remove(byOwner_, video.getOwner(), video.getId());
+		remove(bySubject_, video.getSubject(), video.getId());
+		remove(byLocation_, video.getLocation(), video.getId());
+		remove(byRating_, video.getRating(), video.getId());
+	}
+
+	private static <K> void add(ConcurrentMap<K, Posting> index, K value, long id) {
+		if (value == null) {
+			return;
+		}
+		Posting posting = index.get(value);
+		if (posting == null) {
+			posting = new Posting();
+			index.put(value, posting);
+		}
+		if (posting.ids.add(id)) {
+			posting.size++;
+		}
+	}
+
+	private static <K> void remove(ConcurrentMap<K, Posting> index, K value, long id) {
+		if (value == null) {
+			return;
+		}
+		Posting posting = index.get(value);
+		if (posting != null && posting.ids.remove(id) && --posting.size == 0) {
+			index.remove(value);
+		}
+	}
+
+	private static Video copyOf(Video video) {
+		Video copy = new Video(video.getOwner(), video.getTitle(), video.getUrl(), video.getDuration());
+		copy.setId(video.getId());
+		copy.setLocation(video.getLocation());
+		copy.setSubject(video.getSubject());
+		copy.setContentType(video.getContentType());
+		copy.setRating(video.getRating());
+		return copy;
+	}
+
+	/**
+	 * The ids of the videos sharing one indexed value. ConcurrentSkipListSet
+	 * counts its elements on every size() call, so the size is kept here.
+	 */
+	private static class Posting {
+
+		static final Posting EMPTY = new Posting();
+
+		final NavigableSet<Long> ids = new ConcurrentSkipListSet<Long>();
+
+		volatile int size;
+	}
+}
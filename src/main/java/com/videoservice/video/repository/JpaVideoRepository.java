@@ -0,0 +1,217 @@
+package com.videoservice.video.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoPage;
+import com.videoservice.video.model.VideoQuery;
+
+/**
+ * Keeps the videos in the database, with a bounded cache of recently
+ * read videos in front of it.
+ * 
+ * Page queries only fetch ids from the database, which the indexes on
+ * Video answer without touching the rows. The videos themselves then
+ * come from the cache, and only the ones missing from it are loaded, in
+ * a single query.
+ */
+public class JpaVideoRepository implements VideoRepository {
+
+	// Thread-safe proxy that uses the current transaction's EntityManager,
+	// or a short-lived one for reads outside a transaction
+	private final EntityManager entityManager;
+
+	private final TransactionTemplate transactions;
+
+	private final int batchSize;
+
+	// Detached videos by id. Entries are replaced after every committed
+	// write, so readers only see committed data.
+	private final Cache<Long, Video> cache;
+
+	// Only tracks the changes made through this instance, so several
+	// servers sharing one database would each need to be asked
+	private final CatalogVersion version = new CatalogVersion();
+
+	/**
+	 * batchSize should match hibernate.jdbc.batch_size, so that saveAll()
+	 * flushes exactly one JDBC batch at a time.
+	 */
+	public JpaVideoRepository(EntityManagerFactory entityManagerFactory,
+			PlatformTransactionManager transactionManager, int cacheSize, int batchSize) {
+		this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+		this.transactions = new TransactionTemplate(transactionManager);
+		this.batchSize = Math.max(1, batchSize);
+		this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+	}
+
+	@Override
+	public Iterable<Video> findAll() {
+		return entityManager.createQuery("select v from Video v order by v.id", Video.class).getResultList();
+	}
+
+	@Override
+	public Video findOne(long id) {
+		Video video = cache.getIfPresent(id);
+		if (video == null) {
+			video = entityManager.find(Video.class, id);
+			if (video != null) {
+				cache.asMap().putIfAbsent(id, video);
+			}
+		}
+		return video;
+	}
+
+	@Override
+	public VideoPage find(VideoQuery query) {
+		StringBuilder jpql = new StringBuilder("select v.id from Video v where v.id > :cursor");
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("cursor", query.getCursor());
+		where(jpql, parameters, "owner", "=", "owner", query.getOwner());
+		where(jpql, parameters, "subject", "=", "subject", query.getSubject());
+		where(jpql, parameters, "location", "=", "location", query.getLocation());
+		where(jpql, parameters, "rating", ">=", "minRating", query.getMinRating());
+		where(jpql, parameters, "rating", "<=", "maxRating", query.getMaxRating());
+		jpql.append(" order by v.id");
+
+		TypedQuery<Long> ids = entityManager.createQuery(jpql.toString(), Long.class);
+		for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+			ids.setParameter(parameter.getKey(), parameter.getValue());
+		}
+		// One extra row tells whether another page follows
+		List<Long> page = ids.setMaxResults(query.getLimit() + 1).getResultList();
+		if (page.size() <= query.getLimit()) {
+			return new VideoPage(load(page), null);
+		}
+		page = page.subList(0, query.getLimit());
+		return new VideoPage(load(page), page.get(page.size() - 1));
+	}
+
+	@Override
+	public Video save(final Video video) {
+		Video stored = transactions.execute(new TransactionCallback<Video>() {
+			@Override
+			public Video doInTransaction(TransactionStatus status) {
+				return entityManager.merge(video);
+			}
+		});
+		cache.put(stored.getId(), stored);
+		version.changed();
+		return stored;
+	}
+
+	/**
+	 * Inserts and updates go out as JDBC batches of batchSize rows in one
+	 * transaction. The persistence context is cleared after every batch
+	 * so it does not grow with the number of videos.
+	 */
+	@Override
+	public Collection<Video> saveAll(final Collection<Video> videos) {
+		List<Video> stored = transactions.execute(new TransactionCallback<List<Video>>() {
+			@Override
+			public List<Video> doInTransaction(TransactionStatus status) {
+				List<Video> stored = new ArrayList<Video>(videos.size());
+				for (Video video : videos) {
+					stored.add(entityManager.merge(video));
+					if (stored.size() % batchSize == 0) {
+						entityManager.flush();
+						entityManager.clear();
+					}
+				}
+				return stored;
+			}
+		});
+		for (Video video : stored) {
+			cache.put(video.getId(), video);
+		}
+		version.changed();
+		return stored;
+	}
+
+	@Override
+	public void delete(final long id) {
+		boolean removed = transactions.execute(new TransactionCallback<Boolean>() {
+			@Override
+			public Boolean doInTransaction(TransactionStatus status) {
+				Video video = entityManager.find(Video.class, id);
+				if (video == null) {
+					return false;
+				}
+				entityManager.remove(video);
+				return true;
+			}
+		});
+		cache.invalidate(id);
+		// Deleting a missing id leaves the pages, and their ETags, as they are
+		if (removed) {
+			version.changed();
+		}
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+	@Override
+	public long getLastModified() {
+		return version.getLastModified();
+	}
+
+	private static void where(StringBuilder jpql, Map<String, Object> parameters, String field,
+			String operator, String name, Object value) {
+		if (value != null) {
+			jpql.append(" and v.").append(field).append(' ').append(operator).append(" :").append(name);
+			parameters.put(name, value);
+		}
+	}
+
+	/**
+	 * The videos with the given ids, in the same order. Ids deleted since
+	 * the id query ran are skipped.
+	 */
+	private List<Video> load(List<Long> ids) {
+		Map<Long, Video> found = new HashMap<Long, Video>(cache.getAllPresent(ids));
+		List<Long> missing = new ArrayList<Long>();
+		for (Long id : ids) {
+			if (!found.containsKey(id)) {
+				missing.add(id);
+			}
+		}
+		if (!missing.isEmpty()) {
+			List<Video> loaded = entityManager
+					.createQuery("select v from Video v where v.id in :ids", Video.class)
+					.setParameter("ids", missing)
+					.getResultList();
+			for (Video video : loaded) {
+				found.put(video.getId(), video);
+				// A concurrent save may already have put a newer copy
+				cache.asMap().putIfAbsent(video.getId(), video);
+			}
+		}
+		List<Video> videos = new ArrayList<Video>(ids.size());
+		for (Long id : ids) {
+			Video video = found.get(id);
+			if (video != null) {
+				videos.add(video);
+			}
+		}
+		return videos;
+	}
+}
@@ -0,0 +1,49 @@
+package com.videoservice.video.repository;
+
+import java.util.Collection;
+
+import com.videoservice.video.model.Video;
+import com.videoservice.video.model.VideoPage;
+import com.videoservice.video.model.VideoQuery;
+
+/**
+ * Stores the video metadata behind GET /video. See
+ * Application.videoRepository() for how the implementation is chosen.
+ */
+public interface VideoRepository {
+
+	// Return all videos in the repo
+	public Iterable<Video> findAll();
+
+	public Video findOne(long id);
+
+	/**
+	 * One page of the videos matching the query, ordered by id.
+	 */
+	public VideoPage find(VideoQuery query);
+
+	/**
+	 * Stores the video. Videos without an id (0) get a new one. Returns
+	 * the stored video, which callers must not change.
+	 */
+	public Video save(Video video);
+
+	/**
+	 * Stores all the videos at once, which is much cheaper than saving
+	 * them one by one.
+	 */
+	public Collection<Video> saveAll(Collection<Video> videos);
+
+	public void delete(long id);
+
+	/**
+	 * A number that changes whenever a video is saved or deleted, and is
+	 * not reused after a restart. Used as the ETag of the catalog.
+	 */
+	public long getVersion();
+
+	/**
+	 * When a video was last saved or deleted, in milliseconds.
+	 */
+	public long getLastModified();
+}
@@ -0,0 +1,71 @@
+package com.videoservice.video.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AccountPasswordEncoderTest {
+
+	// The lowest cost BCrypt allows, to keep the test fast
+	private final AccountPasswordEncoder encoder = new AccountPasswordEncoder(4);
+
+	@Test
+	public void hashedSecretsMatchTheirPassword() {
+		String hash = encoder.encode("pass");
+		assertTrue(hash.startsWith("$2a$04$"));
+		assertTrue(encoder.matches("pass", hash));
+		assertFalse(encoder.matches("wrong", hash));
+	}
+
+	@Test
+	public void theHashIsNotAPassword() {
+		String hash = encoder.encode("pass");
+		assertFalse(encoder.matches(hash, hash));
+	}
+
+	@Test
+	public void otherRevisionsAreCheckedAsBCrypt() {
+		String body = encoder.encode("pass").substring(4);
+		for (String revision : new String[] { "$2b$", "$2y$" }) {
+			String hash = revision + body;
+			assertTrue(AccountPasswordEncoder.isHashed(hash));
+			assertTrue(encoder.matches("pass", hash));
+			assertFalse(encoder.matches("wrong", hash));
+			assertFalse(encoder.matches(hash, hash));
+		}
+	}
+
+	@Test
+	public void unknownRevisionsNeverMatch() {
+		String body = encoder.encode("pass").substring(4);
+		for (String hash : new String[] { "$2x$" + body, "$2$" + body, "$2a$04$short" }) {
+			assertTrue(AccountPasswordEncoder.isHashed(hash));
+			assertFalse(encoder.matches("pass", hash));
+			assertFalse(encoder.matches(hash, hash));
+		}
+	}
+
+	@Test
+	public void plaintextSecretsAreComparedAsTheyAre() {
+		assertFalse(AccountPasswordEncoder.isHashed("pass"));
+		assertTrue(encoder.matches("pass", "pass"));
+		assertFalse(encoder.matches("pas", "pass"));
+		assertFalse(encoder.matches("pass", null));
+	}
+
+	@Test
+	public void emptySecrets() {
+		assertTrue(encoder.matches("", ""));
+		assertFalse(encoder.matches("pass", ""));
+		assertFalse(AccountPasswordEncoder.needsHashing(""));
+		assertFalse(AccountPasswordEncoder.needsHashing(null));
+	}
+
+	@Test
+	public void onlyPlaintextNeedsHashing() {
+		assertTrue(AccountPasswordEncoder.needsHashing("pass"));
+		assertFalse(AccountPasswordEncoder.needsHashing(encoder.encode("pass")));
+		assertFalse(AccountPasswordEncoder.needsHashing("$2y$10$" + "a"));
+	}
+}
@@ -0,0 +1,116 @@
+package com.videoservice.video.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class ScopeAccessRulesTest {
+
+	// The rules of OAuth2SecurityConfiguration.ResourceServer
+	private final ScopeAccessRules rules = new ScopeAccessRules()
+			.anonymous("/oauth/token")
+			.requireScope(HttpMethod.GET, "/**", "read")
+			.requireScope(null, "/**", "write");
+
+	@Test
+	public void readScopeAllowsGetsOnly() {
+		Authentication token = token("read");
+		assertTrue(rules.isAllowed(request("GET", "/video"), token));
+		assertFalse(rules.isAllowed(request("POST", "/video"), token));
+		assertFalse(rules.isAllowed(request("DELETE", "/video/1"), token));
+	}
+
+	@Test
+	public void writeScopeAllowsEverythingButGets() {
+		Authentication token = token("write");
+		assertFalse(rules.isAllowed(request("GET", "/video"), token));
+		assertTrue(rules.isAllowed(request("POST", "/video"), token));
+		assertTrue(rules.isAllowed(request("PUT", "/video/1/data/upload/x"), token));
+	}
+
+	@Test
+	public void bothScopes() {
+		Authentication token = token("read", "write");
+		assertTrue(rules.isAllowed(request("GET", "/video"), token));
+		assertTrue(rules.isAllowed(request("POST", "/video"), token));
+	}
+
+	@Test
+	public void unknownScopesGrantNothing() {
+		Authentication token = token("admin", "trust");
+		assertFalse(rules.isAllowed(request("GET", "/video"), token));
+		assertFalse(rules.isAllowed(request("POST", "/video"), token));
+	}
+
+	@Test
+	public void requestsWithoutTokenAreDenied() {
+		assertFalse(rules.isAllowed(request("GET", "/video"), null));
+		assertFalse(rules.isAllowed(request("GET", "/video"), anonymous()));
+		assertFalse(rules.isAllowed(request("GET", "/video"),
+				new UsernamePasswordAuthenticationToken("user0", "pass", AuthorityUtils.createAuthorityList("USER"))));
+	}
+
+	@Test
+	public void anonymousRuleOnlyAllowsAnonymous() {
+		assertTrue(rules.isAllowed(request("POST", "/oauth/token"), null));
+		assertTrue(rules.isAllowed(request("POST", "/oauth/token"), anonymous()));
+		assertFalse(rules.isAllowed(request("POST", "/oauth/token"), token("read", "write")));
+	}
+
+	@Test
+	public void firstMatchingRuleWins() {
+		ScopeAccessRules rules = new ScopeAccessRules()
+				.requireScope(null, "/video/*/rating", "rate")
+				.requireScope(null, "/video/**", "write");
+		assertTrue(rules.isAllowed(request("POST", "/video/1/rating"), token("rate")));
+		assertFalse(rules.isAllowed(request("POST", "/video/1/rating"), token("write")));
+		assertTrue(rules.isAllowed(request("POST", "/video/1"), token("write")));
+	}
+
+	@Test
+	public void unmatchedRequestsAreAllowed() {
+		ScopeAccessRules rules = new ScopeAccessRules().requireScope(null, "/video/**", "write");
+		assertTrue(rules.isAllowed(request("GET", "/health"), null));
+	}
+
+	@Test
+	public void sameTokenGivesSameAnswer() {
+		Authentication token = token("read");
+		for (int i = 0; i < 3; i++) {
+			assertTrue(rules.isAllowed(request("GET", "/video"), token));
+			assertFalse(rules.isAllowed(request("POST", "/video"), token));
+		}
+	}
+
+	private static MockHttpServletRequest request(String method, String path) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+		request.setServletPath(path);
+		return request;
+	}
+
+	private static Authentication token(String... scopes) {
+		OAuth2Request request = new OAuth2Request(Collections.<String, String> emptyMap(), "mobile",
+				Collections.<GrantedAuthority> emptyList(), true, new HashSet<String>(Arrays.asList(scopes)),
+				null, null, null, Collections.<String, Serializable> emptyMap());
+		return new OAuth2Authentication(request, null);
+	}
+
+	private static Authentication anonymous() {
+		return new AnonymousAuthenticationToken("key", "anonymousUser", AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+	}
+}
@@ -0,0 +1,73 @@
+package com.videoservice.video.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	private static final long SIZE = 1000;
+
+	@Test
+	public void closedRange() {
+		ByteRange range = ByteRange.parse("bytes=100-199", SIZE);
+		assertEquals(100, range.getFirst());
+		assertEquals(199, range.getLast());
+		assertEquals(100, range.getLength());
+		assertEquals("bytes 100-199/1000", range.toContentRange(SIZE));
+	}
+
+	@Test
+	public void openRangeRunsToTheEnd() {
+		ByteRange range = ByteRange.parse("bytes=900-", SIZE);
+		assertEquals(900, range.getFirst());
+		assertEquals(999, range.getLast());
+	}
+
+	@Test
+	public void lastIsClippedToTheFile() {
+		ByteRange range = ByteRange.parse("bytes=500-5000", SIZE);
+		assertEquals(500, range.getFirst());
+		assertEquals(999, range.getLast());
+	}
+
+	@Test
+	public void suffixRange() {
+		ByteRange range = ByteRange.parse("bytes=-100", SIZE);
+		assertEquals(900, range.getFirst());
+		assertEquals(999, range.getLast());
+	}
+
+	@Test
+	public void suffixLongerThanTheFileIsTheWholeFile() {
+		ByteRange range = ByteRange.parse("bytes=-5000", SIZE);
+		assertEquals(0, range.getFirst());
+		assertEquals(999, range.getLast());
+	}
+
+	@Test
+	public void ignoredHeaders() {
+		assertNull(ByteRange.parse(null, SIZE));
+		assertNull(ByteRange.parse("items=0-10", SIZE));
+		assertNull(ByteRange.parse("bytes=0-1,5-9", SIZE));
+		assertNull(ByteRange.parse("bytes=10", SIZE));
+		assertNull(ByteRange.parse("bytes=a-b", SIZE));
+		assertNull(ByteRange.parse("bytes=20-10", SIZE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void startPastTheEndIsUnsatisfiable() {
+		ByteRange.parse("bytes=1000-", SIZE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptySuffixIsUnsatisfiable() {
+		ByteRange.parse("bytes=-0", SIZE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void suffixOfEmptyFileIsUnsatisfiable() {
+		ByteRange.parse("bytes=-10", 0);
+	}
+}
@@ -0,0 +1,133 @@
+package com.videoservice.video.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+
+public class ChunkedUploadTest {
+
+	private static final int SIZE = 1000;
+
+	private final byte[] data = new byte[SIZE];
+
+	private Path dir;
+
+	private ChunkedUpload upload;
+
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < SIZE; i++) {
+			data[i] = (byte) (i * 31 + 7);
+		}
+		dir = Files.createTempDirectory("upload");
+		upload = new ChunkedUpload("id", 1, "user", SIZE, 300, dir.resolve("video1.mpg.id.part"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		upload.abort();
+		Files.deleteIfExists(dir.resolve("video1.mpg"));
+		Files.delete(dir);
+	}
+
+	@Test
+	public void chunksInAnyOrder() throws IOException {
+		assertTrue(write(700, 300));
+		assertTrue(write(0, 300));
+		assertTrue(write(600, 100));
+		assertFalse(upload.isComplete());
+		assertTrue(write(300, 300));
+		assertTrue(upload.isComplete());
+		assertArrayEquals(data, finish());
+	}
+
+	@Test
+	public void overlappingChunksMerge() throws IOException {
+		assertTrue(write(0, 300));
+		assertTrue(write(200, 300));
+		assertTrue(write(450, 300));
+		assertTrue(write(700, 300));
+		assertTrue(upload.isComplete());
+		assertEquals(1, upload.getStatus().getReceived().size());
+		assertArrayEquals(data, finish());
+	}
+
+	@Test
+	public void badChunkDoesNotOverwriteAcceptedData() throws IOException {
+		assertTrue(write(0, 300));
+		byte[] garbage = new byte[300];
+		Arrays.fill(garbage, (byte) 0x55);
+		// Signed with the digest of the real data, so it fails the check
+		byte[] md5 = Hashing.md5().hashBytes(data, 100, 300).asBytes();
+		assertFalse(upload.write(100, garbage.length, new ByteArrayInputStream(garbage), md5));
+		assertEquals(1, upload.getStatus().getReceived().size());
+		assertArrayEquals(new long[] { 0, 300 }, upload.getStatus().getReceived().get(0));
+		assertTrue(write(300, 300));
+		assertTrue(write(600, 300));
+		assertTrue(write(900, 100));
+		assertArrayEquals(data, finish());
+	}
+
+	@Test
+	public void chunkPastTheEndIsRejectedBeforeWriting() throws IOException {
+		assertTrue(write(800, 200));
+		try {
+			upload.write(900, -1, new ByteArrayInputStream(new byte[150]), new byte[16]);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(write(0, 300));
+		assertTrue(write(300, 300));
+		assertTrue(write(600, 200));
+		assertArrayEquals(data, finish());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void declaredLengthAboveChunkLimit() throws IOException {
+		upload.write(0, 400, new ByteArrayInputStream(new byte[400]), new byte[16]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void undeclaredLengthAboveChunkLimit() throws IOException {
+		upload.write(0, -1, new ByteArrayInputStream(new byte[400]), new byte[16]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bodyShorterThanDeclared() throws IOException {
+		upload.write(0, 200, new ByteArrayInputStream(data, 0, 100), Hashing.md5().hashBytes(data, 0, 100).asBytes());
+	}
+
+	@Test
+	public void idleUntilWritten() throws IOException {
+		long before = System.currentTimeMillis() + 1;
+		assertTrue(upload.isIdleSince(before));
+		assertTrue(write(0, 100));
+		assertFalse(upload.isIdleSince(before - 1));
+	}
+
+	private boolean write(int offset, int length) throws IOException {
+		byte[] md5 = Hashing.md5().hashBytes(data, offset, length).asBytes();
+		return upload.write(offset, length, new ByteArrayInputStream(data, offset, length), md5);
+	}
+
+	private byte[] finish() throws IOException {
+		Path target = dir.resolve("video1.mpg");
+		upload.finish(target);
+		return Files.readAllBytes(target);
+	}
+}
@@ -0,0 +1,94 @@
+package com.videoservice.video.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoxBlurTest {
+
+	@Test
+	public void radiiForSigma30() {
+		assertArrayEquals(new int[] { 29, 29, 30 }, BoxBlur.radii(30));
+	}
+
+	@Test
+	public void radiiForSigma4() {
+		assertArrayEquals(new int[] { 3, 3, 4 }, BoxBlur.radii(4));
+	}
+
+	/**
+	 * A box of width w has variance (w^2 - 1) / 12, and the variances of
+	 * the passes add up. Whole pixel widths can't hit sigma^2 exactly, but
+	 * they should come within one width step of it.
+	 */
+	@Test
+	public void combinedVarianceMatchesSigma() {
+		for (double sigma = 4; sigma <= 60; sigma += 0.5) {
+			double variance = 0;
+			for (int radius : BoxBlur.radii(sigma)) {
+				int width = 2 * radius + 1;
+				variance += (width * width - 1) / 12.0;
+			}
+			assertEquals("sigma " + sigma, sigma * sigma, variance, sigma + 1);
+		}
+	}
+
+	@Test
+	public void horizontalMatchesDirectAverage() {
+		int width = 50;
+		int height = 3;
+		int radius = 7;
+		int[] in = randomPixels(width * height, new Random(1));
+		int[] out = new int[in.length];
+		BoxBlur.horizontal(in, out, width, radius, 0, height);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = 0, g = 0, b = 0;
+				for (int i = -radius; i <= radius; i++) {
+					int p = in[y * width + Pixels.clampIndex(x + i, width - 1)];
+					r += Pixels.red(p);
+					g += Pixels.green(p);
+					b += Pixels.blue(p);
+				}
+				int size = 2 * radius + 1;
+				int expected = Pixels.pack((r + size / 2) / size, (g + size / 2) / size, (b + size / 2) / size);
+				assertEquals("pixel " + x + "," + y, expected, out[y * width + x]);
+			}
+		}
+	}
+
+	@Test
+	public void verticalMatchesHorizontalOnTransposedImage() {
+		int size = 40;
+		int radius = 5;
+		int[] in = randomPixels(size * size, new Random(2));
+		int[] transposed = new int[in.length];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				transposed[x * size + y] = in[y * size + x];
+			}
+		}
+		int[] vertical = new int[in.length];
+		int[] horizontal = new int[in.length];
+		BoxBlur.vertical(in, vertical, size, size, radius, 0, size);
+		BoxBlur.horizontal(transposed, horizontal, size, radius, 0, size);
+
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				assertEquals(horizontal[x * size + y], vertical[y * size + x]);
+			}
+		}
+	}
+
+	static int[] randomPixels(int count, Random random) {
+		int[] pixels = new int[count];
+		for (int i = 0; i < count; i++) {
+			pixels[i] = random.nextInt() & 0xffffff;
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,107 @@
+package com.videoservice.video.filter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The box approximation against the exact kernel that it replaces for
+ * the BLUR effect (radius 0, sigma 30). The exact kernel is what
+ * MagickImage.blurImage(0, 30) computes, apart from rounding, with the
+ * edge pixels repeated like ImageMagick's default virtual pixels.
+ * 
+ * The box passes run on the image extended with its repeated edge, so
+ * near the borders they see the same pixels as the exact kernel. What
+ * is left there is the box shape, a little more than in the interior.
+ */
+public class GaussianBlurFilterTest {
+
+	private static final double SIGMA = 30;
+
+	// Differences in 8 bit levels, per channel
+	private static final int MAX_INTERIOR_ERROR = 2;
+	private static final int MAX_BORDER_ERROR = 3;
+	private static final double MAX_MEAN_ERROR = 1.0;
+
+	private final RasterPool pool = new RasterPool(0);
+
+	@Test
+	public void boxApproximationIsCloseToExactBlur() {
+		int width = 480;
+		int height = 360;
+		PixelBuffer src = testImage(width, height);
+		GaussianBlurFilter exact = new GaussianBlurFilter(0, SIGMA, TiledExecutor.SEQUENTIAL, Double.MAX_VALUE);
+		GaussianBlurFilter approximate = new GaussianBlurFilter(0, SIGMA, TiledExecutor.SEQUENTIAL, 4.0);
+		assertFalse(exact.isApproximate());
+		assertTrue(approximate.isApproximate());
+
+		PixelBuffer expected = PixelBuffer.allocate(width, height, pool);
+		PixelBuffer actual = PixelBuffer.allocate(width, height, pool);
+		exact.apply(src, expected, pool);
+		approximate.apply(src, actual, pool);
+
+		int maxInterior = 0;
+		int maxBorder = 0;
+		long total = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int e = expected.getPixels()[y * width + x];
+				int a = actual.getPixels()[y * width + x];
+				int diff = Math.max(Math.abs(Pixels.red(e) - Pixels.red(a)),
+						Math.max(Math.abs(Pixels.green(e) - Pixels.green(a)), Math.abs(Pixels.blue(e) - Pixels.blue(a))));
+				total += diff;
+				int border = Math.min(Math.min(x, width - 1 - x), Math.min(y, height - 1 - y));
+				if (border >= SIGMA) {
+					maxInterior = Math.max(maxInterior, diff);
+				} else {
+					maxBorder = Math.max(maxBorder, diff);
+				}
+			}
+		}
+		double mean = (double) total / src.size();
+		assertTrue("interior error " + maxInterior, maxInterior <= MAX_INTERIOR_ERROR);
+		assertTrue("border error " + maxBorder, maxBorder <= MAX_BORDER_ERROR);
+		assertTrue("mean error " + mean, mean <= MAX_MEAN_ERROR);
+	}
+
+	@Test
+	public void stripesGiveTheSameResult() {
+		PixelBuffer src = testImage(120, 97);
+		TiledExecutor executor = new TiledExecutor(4, 16);
+		try {
+			for (double boxSigma : new double[] { 4.0, Double.MAX_VALUE }) {
+				PixelBuffer sequential = PixelBuffer.allocate(src.getWidth(), src.getHeight(), pool);
+				PixelBuffer striped = PixelBuffer.allocate(src.getWidth(), src.getHeight(), pool);
+				new GaussianBlurFilter(0, 8, TiledExecutor.SEQUENTIAL, boxSigma).apply(src, sequential, pool);
+				new GaussianBlurFilter(0, 8, executor, boxSigma).apply(src, striped, pool);
+				for (int i = 0; i < src.size(); i++) {
+					assertTrue("pixel " + i, sequential.getPixels()[i] == striped.getPixels()[i]);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Gradients, hard edges and noise, so that both smooth areas and
+	 * high frequencies are covered.
+	 */
+	static PixelBuffer testImage(int width, int height) {
+		PixelBuffer image = PixelBuffer.allocate(width, height, new RasterPool(0));
+		Random random = new Random(3);
+		int[] pixels = image.getPixels();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = 255 * x / width;
+				int g = (x / 20 + y / 20) % 2 == 0 ? 230 : 20;
+				int b = random.nextInt(256);
+				pixels[y * width + x] = Pixels.pack(r, g, b);
+			}
+		}
+		return image;
+	}
+}